@@ -26,15 +26,21 @@ package org.nbfx.explorer.view;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyVetoException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.value.ChangeListener;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
 import javafx.scene.layout.BorderPane;
 import javafx.util.Callback;
 import org.nbfx.nodes.wrapper.NodeWrapper;
+import org.nbfx.util.NBFxThreading;
 import org.nbfx.util.NBFxUtilities;
 import org.openide.explorer.ExplorerManager;
 import org.openide.nodes.Node;
@@ -43,10 +49,13 @@ import org.openide.util.Parameters;
 
 public abstract class NodeView<T> extends BorderPane implements ExplorerManager.Provider {
 
+    private static final int BACKGROUND_THROUGHPUT = Integer.getInteger("NBFxViewBackgroundThroughput", 8);
+    private final NBFxThreading backgroundThreading = NBFxUtilities.createBackgroundThreading(getClass().getSimpleName(), BACKGROUND_THROUGHPUT);
     private final EMListener<T> emListener = new EMListener<>(this);
     private ExplorerManager explorerManager = null;
     private Callback<NodeWrapper, T> representationFactory = null;
     private final ObjectProperty<T> rootNodeProperty = new SimpleObjectProperty<>(null);
+    private final BooleanProperty pagedChildrenProperty = new SimpleBooleanProperty(false);
     private final ChangeListener<T> selectionListener = (ov, oldValue, newValue) -> {
         if (null != getExplorerManager()) {
             final Node node = getNode(newValue);
@@ -67,16 +76,55 @@ public abstract class NodeView<T> extends BorderPane implements ExplorerManager.
         return rootNodeProperty;
     }
 
+    /**
+     * Whether the children of the root are shown through
+     * {@link NodeWrapper#pagedChildren(NBFxThreading)}, which only
+     * materialises the children that are actually shown. Meant for roots
+     * with a huge number of children; honoured by views showing a flat list
+     * of children. Takes effect when the root changes. Paged children keep
+     * the order of the nodes, so a table cannot be sorted in this mode.
+     */
+    public final BooleanProperty pagedChildrenProperty() {
+        return pagedChildrenProperty;
+    }
+
+    public final boolean isPagedChildren() {
+        return pagedChildrenProperty.get();
+    }
+
+    public final void setPagedChildren(final boolean pagedChildren) {
+        pagedChildrenProperty.set(pagedChildren);
+    }
+
+    /**
+     * @return the threading this view uses to load children in the background
+     */
+    public final NBFxThreading getBackgroundThreading() {
+        return backgroundThreading;
+    }
+
     public final ChangeListener<T> getSelectionListener() {
         return selectionListener;
     }
 
     public void setRootNode(final org.openide.nodes.Node node) {
-        setRootNode(new NodeWrapper(node));
+        setAcquiredRootNode((null == node) ? null : NodeWrapper.acquire(node));
     }
 
     public void setRootNode(final NodeWrapper nodeWrapper) {
-        NBFxUtilities.FX.runLater(() -> rootNodeProperty.set(getRepresentation(nodeWrapper)));
+        setAcquiredRootNode((null == nodeWrapper) ? null : nodeWrapper.acquire());
+    }
+
+    private void setAcquiredRootNode(final NodeWrapper nodeWrapper) {
+        NBFxUtilities.FX.runLater(() -> {
+            final T oldRoot = rootNodeProperty.get();
+
+            rootNodeProperty.set(getRepresentation(nodeWrapper));
+
+            if (null != oldRoot) {
+                disposeRepresentation(oldRoot);
+            }
+        });
     }
 
     public final void setExplorerManager(final ExplorerManager explorerManager) {
@@ -109,12 +157,66 @@ public abstract class NodeView<T> extends BorderPane implements ExplorerManager.
 
     public List<T> getRepresentations(final Stream<? extends Node> nodeStream) {
         return nodeStream
-                .map(NodeWrapper::new)
+                .map(NodeWrapper::acquire)
                 .map(nw -> getRepresentation(nw))
                 .filter(o -> null != o)
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Mirrors the {@code change} of a {@link NodeWrapper#childNodes()} list
+     * onto the {@code representations} of these nodes, touching only the
+     * ranges that actually changed.
+     */
+    protected void updateRepresentations(final ListChangeListener.Change<? extends Node> change, final List<T> representations) {
+        NBFxUtilities.FX.ensureThread();
+
+        while (change.next()) {
+            if (change.wasPermutated()) {
+                final List<T> permutated = new ArrayList<>(representations.subList(change.getFrom(), change.getTo()));
+
+                for (int i = change.getFrom(); i < change.getTo(); i++) {
+                    permutated.set(change.getPermutation(i) - change.getFrom(), representations.get(i));
+                }
+
+                representations.subList(change.getFrom(), change.getTo()).clear();
+                representations.addAll(change.getFrom(), permutated);
+            } else {
+                if (change.wasRemoved()) {
+                    final List<T> removed = representations.subList(change.getFrom(), change.getFrom() + change.getRemovedSize());
+                    final List<T> disposable = new ArrayList<>(removed);
+
+                    removed.clear();
+                    disposable.forEach(this::disposeRepresentation);
+                }
+
+                if (change.wasAdded()) {
+                    representations.addAll(change.getFrom(), getRepresentations(change.getAddedSubList().stream()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the {@code representations} by {@code replacement} and
+     * disposes the replaced ones. Representations that are kept have to be
+     * acquired again by {@code replacement}, as they are disposed once here.
+     */
+    protected void replaceRepresentations(final ObservableList<T> representations, final List<? extends T> replacement) {
+        final List<T> disposable = new ArrayList<>(representations);
+
+        representations.setAll(replacement);
+        disposable.forEach(this::disposeRepresentation);
+    }
+
+    /**
+     * Called on the FX thread when a representation created by this view
+     * leaves its model, e.g. to {@link NodeWrapper#dispose() dispose} the
+     * wrappers it holds.
+     */
+    protected void disposeRepresentation(final T t) {
+    }
+
     protected abstract Node getNode(final T t);
 
     private static class EMListener<T> implements PropertyChangeListener {
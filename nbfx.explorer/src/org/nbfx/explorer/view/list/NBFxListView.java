@@ -23,21 +23,23 @@
  */
 package org.nbfx.explorer.view.list;
 
-import java.util.List;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
 import javafx.beans.value.ChangeListener;
 import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.scene.control.MultipleSelectionModel;
 import javafx.scene.image.ImageView;
 import org.nbfx.explorer.view.NodeView;
 import org.nbfx.nodes.wrapper.NodeWrapper;
-import org.nbfx.util.NBFxUtilities;
 import org.openide.nodes.Node;
 
 public class NBFxListView extends NodeView<NodeWrapper> {
 
     private final ListView<NodeWrapper> listView = new ListView<>();
+    private CompletableFuture<Void> childrenLoad = null;
 
     public NBFxListView() {
         setCenter(listView);
@@ -76,10 +78,9 @@ public class NBFxListView extends NodeView<NodeWrapper> {
                 getSelectionListener().changed(null, null, newValue.getSelectedItem());
             }
         };
-        final ListChangeListener<? super Node> selectionListener = change -> {
-            final List<NodeWrapper> wrappers = getRepresentations(change.getList().stream());
-            NBFxUtilities.FX.runLater(() -> listView.getItems().setAll(wrappers));
-        };
+        // the view's own items, replaced by the paged children of the root in paged mode
+        final ObservableList<NodeWrapper> items = listView.getItems();
+        final ListChangeListener<? super Node> selectionListener = change -> updateRepresentations(change, items);
 
         listView.selectionModelProperty().addListener(selModelListener);
         selModelListener.changed(null, null, listView.getSelectionModel());
@@ -90,19 +91,38 @@ public class NBFxListView extends NodeView<NodeWrapper> {
                 oldValue.childNodes().removeListener(selectionListener);
             }
 
-            if (null != newValue) {
+            if (null != childrenLoad) {
+                // not needed anymore, unless another view still waits for it
+                childrenLoad.cancel(false);
+                childrenLoad = null;
+            }
+
+            if (null == newValue) {
+                replaceRepresentations(items, Collections.<NodeWrapper>emptyList());
+                listView.setItems(items);
+            } else if (isPagedChildren()) {
+                replaceRepresentations(items, Collections.<NodeWrapper>emptyList());
+                listView.setItems(newValue.pagedChildren(getBackgroundThreading()));
+            } else {
+                replaceRepresentations(items, getRepresentations(newValue.childNodes().stream()));
+                listView.setItems(items);
                 newValue.childNodes().addListener(selectionListener);
-                newValue.addNotify();
+                childrenLoad = newValue.addNotify(getBackgroundThreading());
             }
         });
     }
 
+    @Override
+    protected void disposeRepresentation(final NodeWrapper t) {
+        t.dispose();
+    }
+
     @Override
     protected Node getNode(final NodeWrapper t) {
         if (null == t) {
             return null;
         } else {
-            t.contextMenuProperty(); // forces update of contextmenu
+            t.prepareContextMenu(); // likely to be shown next
             return t.getValue();
         }
     }
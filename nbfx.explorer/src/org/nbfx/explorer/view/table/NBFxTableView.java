@@ -24,12 +24,16 @@
 package org.nbfx.explorer.view.table;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
 import java.util.List;
 import javafx.beans.value.ChangeListener;
 import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
 import javafx.scene.control.MultipleSelectionModel;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
+import javafx.util.Callback;
 import org.nbfx.explorer.view.NodeView;
 import org.nbfx.nodes.wrapper.NodeWrapper;
 import org.nbfx.util.NBFxUtilities;
@@ -38,7 +42,10 @@ import org.openide.util.Parameters;
 
 public class NBFxTableView extends NodeView<NodeWrapper> {
 
+    private static final Callback<TableView<NodeWrapper>, Boolean> PAGED_SORT_POLICY = table -> false;
+
     private final TableView<NodeWrapper> tableView = new TableView<>();
+    private CompletableFuture<Void> childrenLoad = null;
 
     public NBFxTableView() {
         setCenter(tableView);
@@ -52,10 +59,10 @@ public class NBFxTableView extends NodeView<NodeWrapper> {
                 getSelectionListener().changed(null, null, newValue.getSelectedItem());
             }
         };
-        final ListChangeListener<? super Node> selectionListener = change -> {
-            final List<NodeWrapper> wrappers = getRepresentations(change.getList().stream());
-            NBFxUtilities.FX.runLater(() -> tableView.getItems().setAll(wrappers));
-        };
+        // the view's own items, replaced by the paged children of the root in paged mode
+        final ObservableList<NodeWrapper> items = tableView.getItems();
+        final ListChangeListener<? super Node> selectionListener = change -> updateRepresentations(change, items);
+        final Callback<TableView<NodeWrapper>, Boolean> sortPolicy = tableView.getSortPolicy();
 
         tableView.selectionModelProperty().addListener(selModelListener);
         selModelListener.changed(null, null, tableView.getSelectionModel());
@@ -66,9 +73,29 @@ public class NBFxTableView extends NodeView<NodeWrapper> {
                 oldValue.childNodes().removeListener(selectionListener);
             }
 
-            if (null != newValue) {
+            if (null != childrenLoad) {
+                // not needed anymore, unless another view still waits for it
+                childrenLoad.cancel(false);
+                childrenLoad = null;
+            }
+
+            if (null == newValue) {
+                replaceRepresentations(items, Collections.<NodeWrapper>emptyList());
+                tableView.setSortPolicy(sortPolicy);
+                tableView.setItems(items);
+            } else if (isPagedChildren()) {
+                replaceRepresentations(items, Collections.<NodeWrapper>emptyList());
+                // sorting would load every page and then fail, as the paged
+                // children cannot be modified; the table keeps the node order
+                tableView.getSortOrder().clear();
+                tableView.setSortPolicy(PAGED_SORT_POLICY);
+                tableView.setItems(newValue.pagedChildren(getBackgroundThreading()));
+            } else {
+                replaceRepresentations(items, getRepresentations(newValue.childNodes().stream()));
+                tableView.setSortPolicy(sortPolicy);
+                tableView.setItems(items);
                 newValue.childNodes().addListener(selectionListener);
-                newValue.addNotify();
+                childrenLoad = newValue.addNotify(getBackgroundThreading());
             }
         });
     }
@@ -101,12 +128,17 @@ public class NBFxTableView extends NodeView<NodeWrapper> {
         NBFxUtilities.FX.runLater(() -> tableView.getColumns().setAll(defs));
     }
 
+    @Override
+    protected void disposeRepresentation(final NodeWrapper t) {
+        t.dispose();
+    }
+
     @Override
     protected Node getNode(final NodeWrapper t) {
         if (null == t) {
             return null;
         } else {
-            t.contextMenuProperty(); // forces update of contextmenu
+            t.prepareContextMenu(); // likely to be shown next
             return t.getValue();
         }
     }
@@ -127,7 +159,10 @@ public class NBFxTableView extends NodeView<NodeWrapper> {
 
             if (!NODE_COLUMN_NAME.equals(name)) {
                 Parameters.notNull("dataClass", dataClass);
-                this.setCellValueFactory(p -> NodeWrapper.getValue((null == p) ? null : p.getValue(), name, dataClass));
+                this.setCellValueFactory(p -> ((null == p) || (null == p.getValue()))
+                        ? null
+                        // kept by the wrapper, so rebinding a cell to the row reuses it
+                        : p.getValue().getCachedValue(name, dataClass));
             }
         }
     }
@@ -23,42 +23,68 @@
  */
 package org.nbfx.explorer.view.tree;
 
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
 import javafx.beans.value.ChangeListener;
 import javafx.scene.control.MultipleSelectionModel;
 import javafx.scene.control.TreeCell;
 import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeView;
+import javafx.scene.image.ImageView;
 import org.nbfx.explorer.view.NodeView;
+import org.nbfx.util.NBFxUtilities;
 import org.openide.nodes.Node;
 
 public final class NBFxTreeView extends NodeView<TreeItem<Node>> {
 
     private final TreeView<Node> treeView = new TreeView<>();
+    private NodeSearchIndex searchIndex = null;
 
     public NBFxTreeView() {
         setCenter(treeView);
         treeView.setCellFactory(param -> {
             final TreeCell<Node> cell = new TreeCell<>();
+            // reused whenever the cell is rebound to another item
+            final ImageView imageView = new ImageView();
+
+            // the user is likely to expand what the mouse points at
+            cell.setOnMouseEntered(e -> {
+                if (cell.getTreeItem() instanceof TreeNodeItem) {
+                    ((TreeNodeItem) cell.getTreeItem()).prefetch();
+                }
+            });
 
             cell.treeItemProperty().addListener((ov, oldValue, newValue) -> {
                 if (null != oldValue || null == newValue) {
                     cell.textProperty().unbind();
                     cell.textProperty().setValue(null);
+
+                    imageView.imageProperty().unbind();
+                    imageView.setImage(null);
                     cell.graphicProperty().unbind();
                     cell.graphicProperty().setValue(null);
                     cell.contextMenuProperty().unbind();
                     cell.contextMenuProperty().setValue(null);
                 }
 
-                if (null != newValue) {
+                if (TreeNodeItem.isWaitItem(newValue)) {
+                    cell.textProperty().set(newValue.getValue().getDisplayName());
+                    imageView.setImage(TreeNodeItem.getWaitImage());
+                    cell.setGraphic(imageView);
+                } else if (null != newValue) {
                     if (newValue instanceof TreeNodeItem) {
-                        cell.textProperty().bind(((TreeNodeItem) newValue).textProperty());
-                        cell.contextMenuProperty().bind(((TreeNodeItem) cell.getTreeItem()).contextMenuProperty());
+                        final TreeNodeItem item = (TreeNodeItem) newValue;
+
+                        // the icon is only converted once a cell shows the item
+                        imageView.imageProperty().bind(item.iconProperty());
+                        cell.textProperty().bind(item.textProperty());
+                        cell.contextMenuProperty().bind(item.contextMenuProperty());
+                        cell.setGraphic(imageView);
                     } else {
                         cell.textProperty().set(newValue.getValue().getDisplayName());
+                        cell.graphicProperty().bind(newValue.graphicProperty());
                     }
-
-                    cell.graphicProperty().bind(newValue.graphicProperty());
                 }
             });
 
@@ -79,14 +105,107 @@ public final class NBFxTreeView extends NodeView<TreeItem<Node>> {
         treeView.selectionModelProperty().addListener(selModelListener);
         selModelListener.changed(null, null, treeView.getSelectionModel());
 
-        setRepresentationFactory(TreeNodeItem::new);
-        rootNodeProperty().addListener((ov, oldValue, newValue) -> treeView.setRoot(newValue));
+        setRepresentationFactory(nw -> (null == nw) ? null : new TreeNodeItem(nw, getBackgroundThreading()));
+        rootNodeProperty().addListener((ov, oldValue, newValue) -> {
+            if (null != searchIndex) {
+                searchIndex.dispose();
+                searchIndex = null;
+            }
+
+            treeView.setRoot(newValue);
+        });
+    }
+
+    /**
+     * The search index of the current root, which is built in the background
+     * when this method is first called for the root. Must be called on the
+     * FX thread.
+     *
+     * @return {@code null} if there is no root
+     */
+    public NodeSearchIndex getSearchIndex() {
+        NBFxUtilities.FX.ensureThread();
+
+        final TreeItem<Node> root = treeView.getRoot();
+
+        if ((null == searchIndex) && (null != root)) {
+            searchIndex = new NodeSearchIndex(root.getValue());
+            searchIndex.start();
+        }
+
+        return searchIndex;
+    }
+
+    /**
+     * Looks up the nodes of the path of the {@code hit} in the background,
+     * then expands the path and selects its node. Must be called on the FX
+     * thread.
+     *
+     * @return completes on the FX thread with the selected item, or
+     * exceptionally if the path is not in the tree (anymore)
+     */
+    public CompletableFuture<TreeItem<Node>> reveal(final NodeSearchIndex.Hit hit) {
+        final NodeSearchIndex index = getSearchIndex();
+
+        if (null == index) {
+            final CompletableFuture<TreeItem<Node>> failed = new CompletableFuture<>();
+
+            failed.completeExceptionally(new NoSuchElementException(hit.getDisplayName()));
+            return failed;
+        }
+
+        return getBackgroundThreading().supplyAsynch(() -> index.resolve(hit)).thenCompose(this::reveal);
+    }
+
+    /**
+     * Expands the {@code path}, starting with the root node of the view,
+     * and selects its last node.
+     *
+     * @return completes on the FX thread with the selected item, or
+     * exceptionally if the path is not in the tree (anymore)
+     */
+    public CompletableFuture<TreeItem<Node>> reveal(final List<Node> path) {
+        return CompletableFuture.supplyAsync(() -> {
+            final TreeItem<Node> root = treeView.getRoot();
+
+            if (!(root instanceof TreeNodeItem) || path.isEmpty() || (root.getValue() != path.get(0))) {
+                throw new NoSuchElementException("Path does not start at the root: " + path); //NOI18N
+            }
+
+            return (TreeNodeItem) root;
+        }, NBFxUtilities.FX.getExecutor()).thenCompose(root -> {
+            CompletableFuture<TreeNodeItem> item = CompletableFuture.completedFuture(root);
+
+            for (final Node node : path.subList(1, path.size())) {
+                item = item.thenCompose(parent -> parent.revealChild(node));
+            }
+
+            return item;
+        }).thenApply(item -> {
+            treeView.getSelectionModel().select(item);
+            treeView.scrollTo(treeView.getRow(item));
+
+            return item;
+        });
+    }
+
+    @Override
+    protected void disposeRepresentation(final TreeItem<Node> t) {
+        if (t instanceof TreeNodeItem) {
+            ((TreeNodeItem) t).dispose();
+        }
     }
 
     @Override
     protected Node getNode(final TreeItem<Node> t) {
-        return (null == t)
-                ? null
-                : t.getValue();
+        if ((null == t) || TreeNodeItem.isWaitItem(t)) {
+            return null;
+        } else {
+            if (t instanceof TreeNodeItem) {
+                ((TreeNodeItem) t).prepareContextMenu(); // likely to be shown next
+            }
+
+            return t.getValue();
+        }
     }
 }
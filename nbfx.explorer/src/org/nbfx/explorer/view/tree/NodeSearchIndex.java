@@ -0,0 +1,573 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2015 NBFx.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.nbfx.explorer.view.tree;
+
+import java.beans.PropertyChangeEvent;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.nbfx.util.NBFxThreading;
+import org.nbfx.util.NBFxUtilities;
+import org.openide.nodes.Children;
+import org.openide.nodes.Node;
+import org.openide.nodes.NodeAdapter;
+import org.openide.nodes.NodeEvent;
+import org.openide.nodes.NodeListener;
+import org.openide.nodes.NodeMemberEvent;
+import org.openide.util.Parameters;
+import org.openide.util.WeakListeners;
+
+/**
+ * An index of the display names of all nodes below a root node, including
+ * the ones never shown. It is built in the background from
+ * {@code Node.getChildren()} and keeps only names, so it does not keep the
+ * nodes alive; a hit is resolved to its nodes again by name when it is
+ * revealed. The index listens (weakly) to the nodes that have children and
+ * re-reads their children on every change, so it is kept up to date as long
+ * as these nodes are alive. Names are looked up by prefix in a sorted map
+ * and by substring through an index of their trigrams, so queries do not
+ * scan the nodes. Thread safe.
+ */
+public final class NodeSearchIndex {
+
+    private static final NBFxThreading INDEXING = NBFxUtilities.createBackgroundThreading("NBFxSearchIndex", Integer.getInteger("NBFxSearchIndexThroughput", 2)); //NOI18N
+    private static final int GRAM = 3;
+    private final Node root;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final NavigableMap<String, Set<Hit>> names = new TreeMap<>();
+    private final Map<String, Set<Hit>> trigrams = new HashMap<>();
+    // the grams shorter than a trigram, posting the distinct names instead of the nodes
+    private final Map<String, Set<String>> shortGrams = new HashMap<>();
+    private final AtomicInteger pendingTasks = new AtomicInteger(0);
+    private final CompletableFuture<Void> built = new CompletableFuture<>();
+    private volatile boolean isDisposed = false;
+    private int size = 0;
+
+    public NodeSearchIndex(final Node root) {
+        Parameters.notNull("root", root);
+        this.root = root;
+    }
+
+    /**
+     * Starts indexing the nodes below the root in the background.
+     *
+     * @return completes once the initial indexing is done
+     */
+    public CompletableFuture<Void> start() {
+        submit(() -> {
+            final Hit hit = new Hit(root.getName(), null);
+
+            lock.writeLock().lock();
+
+            try {
+                if (isDisposed) {
+                    return;
+                }
+
+                addHit(hit, root.getDisplayName(), root.isLeaf());
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            if (null != hit.listener) {
+                indexChildren(hit, root);
+            }
+        });
+
+        return built;
+    }
+
+    public Node getRoot() {
+        return root;
+    }
+
+    /**
+     * @return whether the initial indexing is done; until then queries only
+     * find the nodes indexed so far
+     */
+    public boolean isBuilt() {
+        return built.isDone();
+    }
+
+    public int size() {
+        lock.readLock().lock();
+
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return at most {@code limit} nodes whose display name starts with
+     * {@code prefix}, ignoring case, in the order of their names
+     */
+    public List<Hit> findByPrefix(final String prefix, final int limit) {
+        final String key = normalize(prefix);
+        final List<Hit> result = new ArrayList<>();
+
+        lock.readLock().lock();
+
+        try {
+            for (final Set<Hit> named : names.subMap(key, true, key + Character.MAX_VALUE, true).values()) {
+                if (!addAll(result, named, null, limit)) {
+                    break;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return result;
+    }
+
+    /**
+     * @return at most {@code limit} nodes whose display name contains
+     * {@code text}, ignoring case
+     */
+    public List<Hit> findBySubstring(final String text, final int limit) {
+        final String key = normalize(text);
+        final List<Hit> result = new ArrayList<>();
+
+        lock.readLock().lock();
+
+        try {
+            if (key.isEmpty()) {
+                for (final Set<Hit> named : names.values()) {
+                    if (!addAll(result, named, null, limit)) {
+                        break;
+                    }
+                }
+            } else if (key.length() < GRAM) {
+                // the key is a short gram itself, posting exactly the names containing it
+                for (final String name : shortGrams.getOrDefault(key, Collections.<String>emptySet())) {
+                    if (!addAll(result, names.get(name), null, limit)) {
+                        break;
+                    }
+                }
+            } else {
+                // candidates are the nodes having the rarest trigram of the key
+                Set<Hit> candidates = null;
+
+                for (final String trigram : gramsOf(key, GRAM)) {
+                    final Set<Hit> posting = trigrams.get(trigram);
+
+                    if (null == posting) {
+                        return Collections.emptyList();
+                    } else if ((null == candidates) || (posting.size() < candidates.size())) {
+                        candidates = posting;
+                    }
+                }
+
+                addAll(result, candidates, key, limit);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return result;
+    }
+
+    /**
+     * Looks up the nodes of the path of the {@code hit} again, by name,
+     * starting with the root. Blocks while children are computed, so it
+     * must not be called on the FX thread.
+     *
+     * @return the nodes from the root of the index down to the node of the
+     * {@code hit}
+     * @throws NoSuchElementException if a node of the path is gone
+     */
+    public List<Node> resolve(final Hit hit) {
+        final List<String> path = hit.getPath();
+        final List<Node> nodes = new ArrayList<>(path.size());
+        Node node = root;
+
+        nodes.add(node);
+
+        for (final String name : path.subList(1, path.size())) {
+            final Children children = node.getChildren();
+
+            children.getNodesCount(true); // waits for children computed asynchronously
+            node = children.findChild(name);
+
+            if (null == node) {
+                throw new NoSuchElementException(name);
+            }
+
+            nodes.add(node);
+        }
+
+        return nodes;
+    }
+
+    /**
+     * Stops listening to the nodes and drops the index.
+     */
+    public void dispose() {
+        isDisposed = true;
+        lock.writeLock().lock();
+
+        try {
+            // the weak listeners unregister once the hits are collected
+            names.clear();
+            trigrams.clear();
+            shortGrams.clear();
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static boolean addAll(final List<Hit> result, final Set<Hit> candidates, final String key, final int limit) {
+        for (final Hit hit : candidates) {
+            if (result.size() >= limit) {
+                return false;
+            } else if ((null == key) || hit.key.contains(key)) {
+                result.add(hit);
+            }
+        }
+
+        return result.size() < limit;
+    }
+
+    private void submit(final Runnable task) {
+        pendingTasks.incrementAndGet();
+        INDEXING.runLater(() -> {
+            try {
+                if (!isDisposed) {
+                    task.run();
+                }
+            } finally {
+                if (0 == pendingTasks.decrementAndGet()) {
+                    built.complete(null);
+                }
+            }
+        });
+    }
+
+    private void indexChildren(final Hit hit, final Node node) {
+        node.addNodeListener(WeakListeners.create(NodeListener.class, hit.listener, node));
+        updateChildren(hit, node);
+    }
+
+    /**
+     * Reads the children of the {@code node} of the {@code hit} and updates
+     * the hits of its children to match them by name. New children having
+     * children themselves are indexed in tasks of their own, which keeps the
+     * tasks short.
+     */
+    private void updateChildren(final Hit hit, final Node node) {
+        hit.isUpdateQueued = false;
+
+        final Children children = node.getChildren();
+        final int count = children.getNodesCount(true);
+        final List<Child> current = new ArrayList<>(count);
+
+        // node by node, so lazy children need not hold all of them at once
+        for (int i = 0; i < count; i++) {
+            final Node child = children.getNodeAt(i);
+
+            if (null != child) {
+                current.add(new Child(child));
+            }
+        }
+
+        final List<Child> toIndex = new ArrayList<>();
+
+        lock.writeLock().lock();
+
+        try {
+            if (isDisposed || hit.isRemoved) {
+                return;
+            }
+
+            final Map<String, Deque<Hit>> previous = new HashMap<>();
+            final List<Hit> updated = new ArrayList<>(current.size());
+
+            for (final Hit child : hit.children) {
+                previous.computeIfAbsent(child.name, n -> new ArrayDeque<>(1)).add(child);
+            }
+
+            for (final Child child : current) {
+                final Deque<Hit> named = previous.get(child.name);
+                Hit childHit = (null == named) ? null : named.poll();
+
+                if (null == childHit) {
+                    childHit = new Hit(child.name, hit);
+                    addHit(childHit, child.displayName, null == child.node);
+
+                    if (null != child.node) {
+                        child.hit = childHit;
+                        toIndex.add(child);
+                    }
+                } else if (!childHit.displayName.equals(child.displayName)) {
+                    removeName(childHit);
+                    addName(childHit, child.displayName);
+                }
+
+                updated.add(childHit);
+            }
+
+            previous.values().forEach(named -> named.forEach(this::removeSubtree));
+            hit.children = updated;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        for (final Child child : toIndex) {
+            submit(() -> indexChildren(child.hit, child.node));
+        }
+    }
+
+    private void addHit(final Hit hit, final String displayName, final boolean isLeaf) {
+        if (!isLeaf) {
+            hit.listener = new ChildrenListener(hit);
+        }
+
+        addName(hit, displayName);
+        size++;
+    }
+
+    private void remove(final Hit hit) {
+        lock.writeLock().lock();
+
+        try {
+            if (!hit.isRemoved) {
+                if (null != hit.parent) {
+                    hit.parent.children.remove(hit);
+                }
+
+                removeSubtree(hit);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeSubtree(final Hit hit) {
+        hit.isRemoved = true;
+        size--;
+        removeName(hit);
+        hit.children.forEach(this::removeSubtree);
+    }
+
+    private void rename(final Hit hit, final String displayName) {
+        lock.writeLock().lock();
+
+        try {
+            if (!isDisposed && !hit.isRemoved) {
+                removeName(hit);
+                addName(hit, displayName);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addName(final Hit hit, final String displayName) {
+        hit.displayName = (null == displayName) ? "" : displayName;
+        hit.key = normalize(hit.displayName);
+        names.computeIfAbsent(hit.key, key -> {
+            for (int length = 1; length < GRAM; length++) {
+                for (final String gram : gramsOf(key, length)) {
+                    shortGrams.computeIfAbsent(gram, g -> new HashSet<>()).add(key);
+                }
+            }
+
+            return new HashSet<>();
+        }).add(hit);
+
+        for (final String trigram : gramsOf(hit.key, GRAM)) {
+            trigrams.computeIfAbsent(trigram, t -> new HashSet<>()).add(hit);
+        }
+    }
+
+    private void removeName(final Hit hit) {
+        if (remove(names, hit.key, hit)) {
+            for (int length = 1; length < GRAM; length++) {
+                for (final String gram : gramsOf(hit.key, length)) {
+                    remove(shortGrams, gram, hit.key);
+                }
+            }
+        }
+
+        for (final String trigram : gramsOf(hit.key, GRAM)) {
+            remove(trigrams, trigram, hit);
+        }
+    }
+
+    /**
+     * @return whether the {@code key} was removed, as it has no values left
+     */
+    private static <T> boolean remove(final Map<String, Set<T>> map, final String key, final T value) {
+        final Set<T> set = map.get(key);
+
+        if ((null != set) && set.remove(value) && set.isEmpty()) {
+            map.remove(key);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private static Set<String> gramsOf(final String key, final int length) {
+        final Set<String> result = new HashSet<>();
+
+        for (int i = 0; i + length <= key.length(); i++) {
+            result.add(key.substring(i, i + length));
+        }
+
+        return result;
+    }
+
+    private static String normalize(final String text) {
+        return (null == text) ? "" : text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Keeps the {@link Hit} of a node with children up to date. Registered
+     * through a weak listener and referenced by the hit only, not the node.
+     */
+    private final class ChildrenListener extends NodeAdapter {
+
+        private final Hit hit;
+
+        ChildrenListener(final Hit hit) {
+            this.hit = hit;
+        }
+
+        @Override
+        public void childrenAdded(final NodeMemberEvent nme) {
+            updateChildrenLater(nme.getNode());
+        }
+
+        @Override
+        public void childrenRemoved(final NodeMemberEvent nme) {
+            updateChildrenLater(nme.getNode());
+        }
+
+        @Override
+        public void nodeDestroyed(final NodeEvent ne) {
+            remove(hit);
+        }
+
+        @Override
+        public void propertyChange(final PropertyChangeEvent pce) {
+            if (Node.PROP_DISPLAY_NAME.equals(pce.getPropertyName()) && (pce.getSource() instanceof Node)) {
+                rename(hit, ((Node) pce.getSource()).getDisplayName());
+            }
+        }
+
+        private void updateChildrenLater(final Node node) {
+            // a burst of changes is read once
+            if (!hit.isUpdateQueued && !hit.isRemoved) {
+                hit.isUpdateQueued = true;
+                submit(() -> updateChildren(hit, node));
+            }
+        }
+    }
+
+    /**
+     * A child read from the children of a node; the node itself is only kept
+     * if it has children to index.
+     */
+    private static final class Child {
+
+        private final String name;
+        private final String displayName;
+        private final Node node;
+        private Hit hit = null;
+
+        Child(final Node node) {
+            this.name = node.getName();
+            this.displayName = node.getDisplayName();
+            this.node = node.isLeaf() ? null : node;
+        }
+    }
+
+    /**
+     * An indexed node, known by its name and the names of its parents. Its
+     * path is the one at the time it was indexed.
+     */
+    public static final class Hit {
+
+        private final String name;
+        private final Hit parent;
+        private NodeListener listener = null;
+        private List<Hit> children = Collections.emptyList();
+        private volatile boolean isRemoved = false;
+        private volatile boolean isUpdateQueued = false;
+        private volatile String displayName = "";
+        private volatile String key = "";
+
+        private Hit(final String name, final Hit parent) {
+            this.name = name;
+            this.parent = parent;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        /**
+         * @return the names of the nodes from the root of the index down to
+         * this node, see {@link NodeSearchIndex#resolve(Hit)}
+         */
+        public List<String> getPath() {
+            final List<String> path = new ArrayList<>();
+
+            for (Hit hit = this; null != hit; hit = hit.parent) {
+                path.add(hit.name);
+            }
+
+            Collections.reverse(path);
+
+            return path;
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+}
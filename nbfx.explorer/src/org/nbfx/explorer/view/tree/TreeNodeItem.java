@@ -23,61 +23,429 @@
  */
 package org.nbfx.explorer.view.tree;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.StringProperty;
+import javafx.beans.value.ObservableValue;
 import javafx.collections.ListChangeListener;
-import javafx.collections.ObservableList;
 import javafx.scene.control.ContextMenu;
 import javafx.scene.control.TreeItem;
-import javafx.scene.image.ImageView;
+import javafx.scene.image.Image;
 import javax.swing.Action;
 import org.nbfx.nodes.wrapper.NodeWrapper;
+import org.nbfx.util.NBFxImageUtilities;
+import org.nbfx.util.NBFxThreading;
+import org.nbfx.util.NBFxUtilities;
 import org.openide.nodes.AbstractNode;
 import org.openide.nodes.ChildFactory;
 import org.openide.nodes.Children;
 import org.openide.nodes.Node;
+import org.openide.util.ImageUtilities;
 import org.openide.util.NbBundle;
+import org.openide.util.RequestProcessor;
 
 final class TreeNodeItem extends TreeItem<Node> {
 
-    private final Map<Node, TreeNodeItem> convertedNodes = new ConcurrentHashMap<>();
+    // time the FX thread may spend building new child items before yielding
+    private static final long BUILD_BUDGET = TimeUnit.MILLISECONDS.toNanos(Long.getLong("NBFxTreeBuildBudget", 5));
+    // moving average of the time it takes to build one child item, shared by all trees
+    private static volatile double buildNanosPerItem = 50_000;
+    // collapsed subtrees are dropped after this many seconds, a negative value disables it
+    private static final int EVICTION_DELAY = Integer.getInteger("NBFxTreeEvictionDelay", 30);
+    private static final RequestProcessor EVICTION = new RequestProcessor("NBFxTreeEviction"); //NOI18N
+    // child items by the identity of their node, confined to the FX thread
+    private final Map<Node, TreeNodeItem> convertedNodes = new IdentityHashMap<>();
+    private int childrenGeneration = 0;
     private final NodeWrapper nodeWrapper;
-    private final ImageView imageView = new ImageView();
+    private final NBFxThreading threading;
+    // created when a cell first shows the item, so that hidden items convert no icons
+    private ObjectProperty<Image> icon = null;
+    private CompletableFuture<Void> childrenLoad = null;
+    private CompletableFuture<Void> prefetchLoad = null;
+    // children loaded by prefetch() but not shown yet, see TreePrefetch
+    private int prefetchedNodes = 0;
+    private RequestProcessor.Task eviction = null;
+    // expanded descendants of an evicted subtree, restored when re-expanded
+    private ExpansionState expansionState = null;
+    private List<Reveal> reveals = null;
+    // registered on first expand or prefetch, so that leaves and items never
+    // expanded leave the children state of their wrapper uncreated
+    private ListChangeListener<Node> childNodesListener = null;
 
-    public TreeNodeItem(final NodeWrapper nodeWrapper) {
+    public TreeNodeItem(final NodeWrapper nodeWrapper, final NBFxThreading threading) {
         super(nodeWrapper.getValue());
 
         this.nodeWrapper = nodeWrapper;
+        this.threading = threading;
 
-        setGraphic(imageView);
+        // expanded && image
+        expandedProperty().addListener((ov, oldValue, newValue) -> {
+            if (newValue) {
+                listenToChildNodes();
+
+                if (!isPrefetchDone()) {
+                    // do not wait behind the prefetch queue
+                    cancelPrefetch();
+                }
+
+                releasePrefetched();
+
+                // show what is known right away, e.g. if prefetched
+                if (!nodeWrapper.childNodes().isEmpty()) {
+                    updateChildren(nodeWrapper.childNodes());
+                } else if (getChildren().isEmpty()) {
+                    getChildren().setAll(Collections.singleton(createWaitItem()));
+                }
 
-        // children
-        nodeWrapper.childNodes().addListener((ListChangeListener.Change<? extends Node> change) -> {
-            if (isExpanded() || isLeaf()) {
-                final ObservableList<? extends Node> ol = change.getList();
-                getChildren().setAll((ol.size() > 10 ? ol.parallelStream() : ol.stream())
-                        .filter(o -> null != o)
-                        .map(node -> convertedNodes.computeIfAbsent(node, n -> new TreeNodeItem(new NodeWrapper(n))))
-                        .collect(Collectors.toList()));
+                cancelEviction();
+                loadChildren();
+            } else {
+                cancelChildrenLoad();
+                scheduleEviction();
             }
-        });
 
-        // expanded && image
-        expandedProperty().addListener((ov, oldValue, newValue) -> {
-            nodeWrapper.addNotify();
             updateIcon(newValue);
         });
+    }
+
+    private void listenToChildNodes() {
+        if (null == childNodesListener) {
+            childNodesListener = change -> {
+                if (isExpanded()) {
+                    updateChildren(change.getList());
+                }
+            };
+            nodeWrapper.childNodes().addListener(childNodesListener);
+        }
+    }
+
+    /**
+     * Decided by the node rather than by the children, which are only
+     * created when the item is expanded.
+     */
+    @Override
+    public boolean isLeaf() {
+        return getValue().isLeaf();
+    }
+
+    private void scheduleEviction() {
+        if ((EVICTION_DELAY >= 0) && (null == eviction) && !convertedNodes.isEmpty()) {
+            eviction = EVICTION.post(() -> NBFxUtilities.FX.runLater(this::evict), EVICTION_DELAY * 1000);
+        }
+    }
+
+    private void cancelEviction() {
+        if (null != eviction) {
+            eviction.cancel();
+            eviction = null;
+        }
+    }
+
+    /**
+     * Drops the child items of this collapsed item, remembering which of
+     * them were expanded.
+     */
+    private void evict() {
+        if ((null == eviction) || isExpanded()) {
+            return; // cancelled meanwhile
+        }
+
+        eviction = null;
+        childrenGeneration++;
+
+        final ExpansionState state = ExpansionState.of(this);
+
+        expansionState = state.isEmpty() ? null : state;
+        convertedNodes.values().forEach(TreeNodeItem::dispose);
+        convertedNodes.clear();
+        getChildren().clear();
+    }
+
+    private void loadChildren() {
+        if (null != childrenLoad) {
+            return;
+        }
+
+        final CompletableFuture<Void> load = nodeWrapper.addNotify(threading);
+
+        childrenLoad = load;
+        load.whenCompleteAsync((v, t) -> {
+            if (childrenLoad == load) {
+                childrenLoad = null;
+            }
+
+            // the children may already be loaded (e.g. by another view), in
+            // which case loading them again does not fire a change
+            if (null != t) {
+                resolveReveals(t);
+            } else if (isExpanded()) {
+                updateChildren(nodeWrapper.childNodes());
+            }
+        }, NBFxUtilities.FX.getExecutor());
+    }
+
+    /**
+     * Expands this item and (re)loads its children.
+     *
+     * @return completes on the FX thread with the child item of the
+     * {@code node} once it is shown, or exceptionally if the node is not a
+     * child after loading
+     */
+    CompletableFuture<TreeNodeItem> revealChild(final Node node) {
+        final TreeNodeItem child = convertedNodes.get(node);
+
+        if ((null != child) && (this == child.getParent())) {
+            setExpanded(true);
+            return CompletableFuture.completedFuture(child);
+        }
+
+        final CompletableFuture<TreeNodeItem> future = new CompletableFuture<>();
+
+        if (null == reveals) {
+            reveals = new ArrayList<>(1);
+        }
+
+        reveals.add(new Reveal(node, future));
+        // before expanding, so children shown right away do not count as loaded
+        loadChildren();
+        setExpanded(true);
+
+        return future;
+    }
+
+    private void resolveReveals(final Throwable failure) {
+        if (null == reveals) {
+            return;
+        }
+
+        for (final Iterator<Reveal> it = reveals.iterator(); it.hasNext();) {
+            final Reveal reveal = it.next();
+            final TreeNodeItem child = convertedNodes.get(reveal.node);
+
+            if (null != failure) {
+                reveal.future.completeExceptionally(failure);
+                it.remove();
+            } else if (null != child) {
+                reveal.future.complete(child);
+                it.remove();
+            } else if (null == childrenLoad) {
+                reveal.future.completeExceptionally(new NoSuchElementException(reveal.node.getDisplayName()));
+                it.remove();
+            }
+        }
+
+        if (reveals.isEmpty()) {
+            reveals = null;
+        }
+    }
+
+    /**
+     * Loads the children of this collapsed item in the background, so that
+     * expanding it later shows them without waiting. Does nothing if they
+     * are loaded already or the prefetch cap is reached.
+     */
+    void prefetch() {
+        if ((null != prefetchLoad) || isExpanded() || getValue().isLeaf()
+                || !nodeWrapper.childNodes().isEmpty() || !TreePrefetch.isAllowed()) {
+            return;
+        }
+
+        listenToChildNodes();
+
+        final CompletableFuture<Void> load = nodeWrapper.addNotify(TreePrefetch.THREADING);
+
+        prefetchLoad = load;
+        load.thenRunAsync(() -> {
+            if ((prefetchLoad == load) && !isExpanded()) {
+                prefetchedNodes = nodeWrapper.childNodes().size();
+                TreePrefetch.acquire(prefetchedNodes);
+            }
+        }, NBFxUtilities.FX.getExecutor());
+    }
+
+    private void prefetchChildren() {
+        getChildren().stream()
+                .limit(TreePrefetch.FAN_OUT)
+                .filter(item -> item instanceof TreeNodeItem)
+                .forEach(item -> ((TreeNodeItem) item).prefetch());
+    }
+
+    private boolean isPrefetchDone() {
+        return (null == prefetchLoad) || prefetchLoad.isDone();
+    }
+
+    private void cancelPrefetch() {
+        if (null != prefetchLoad) {
+            prefetchLoad.cancel(false);
+            prefetchLoad = null;
+        }
+    }
+
+    private void releasePrefetched() {
+        TreePrefetch.release(prefetchedNodes);
+        prefetchedNodes = 0;
+    }
+
+    private void cancelChildrenLoad() {
+        if (null != childrenLoad) {
+            childrenLoad.cancel(false);
+            childrenLoad = null;
+        }
+    }
+
+    /**
+     * Shows the {@code nodes} as children, reusing the items of nodes that
+     * are already shown. New items are built on the FX thread in chunks that
+     * fit into the build budget, yielding in between; the children are set
+     * once all items are built, unless a newer update came in meanwhile.
+     */
+    private void updateChildren(final List<? extends Node> nodes) {
+        NBFxUtilities.FX.ensureThread();
+
+        final List<Node> snapshot = new ArrayList<>(nodes.size());
+
+        for (final Node node : nodes) {
+            if (null != node) {
+                snapshot.add(node);
+            }
+        }
+
+        buildChildren(snapshot, 0, ++childrenGeneration);
+    }
+
+    private void buildChildren(final List<Node> snapshot, final int from, final int generation) {
+        if (generation != childrenGeneration) {
+            return; // superseded, the newer update reuses what was built
+        }
+
+        final int chunk = (int) Math.max(1, Math.min(Integer.MAX_VALUE, BUILD_BUDGET / buildNanosPerItem));
+        final long start = System.nanoTime();
+        int built = 0;
+        int index = from;
+
+        for (; (index < snapshot.size()) && (built < chunk); index++) {
+            final Node node = snapshot.get(index);
+
+            if (!convertedNodes.containsKey(node)) {
+                convertedNodes.put(node, new TreeNodeItem(NodeWrapper.acquire(node), threading));
+                built++;
+            }
+        }
+
+        if (0 != built) {
+            buildNanosPerItem = 0.8 * buildNanosPerItem + 0.2 * (System.nanoTime() - start) / built;
+        }
+
+        if (index < snapshot.size()) {
+            final int next = index;
+
+            NBFxUtilities.FX.runLater(NBFxThreading.Priority.BULK, () -> buildChildren(snapshot, next, generation));
+        } else {
+            commitChildren(snapshot);
+        }
+    }
+
+    private void commitChildren(final List<Node> snapshot) {
+        final List<TreeNodeItem> items = new ArrayList<>(snapshot.size());
+        final Set<Node> nodes = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (final Node node : snapshot) {
+            items.add(convertedNodes.get(node));
+            nodes.add(node);
+        }
+
+        convertedNodes.values().removeIf(item -> {
+            if (nodes.contains(item.getValue())) {
+                return false;
+            } else {
+                item.dispose();
+                return true;
+            }
+        });
+
+        if (!isSame(items, getChildren())) {
+            getChildren().setAll(items);
+        }
+
+        restoreExpansionState(items);
+        resolveReveals(null);
+
+        if (isExpanded()) {
+            // large lists are built in chunks, so only now are all items there
+            prefetchChildren();
+        }
+    }
+
+    private void restoreExpansionState(final List<TreeNodeItem> items) {
+        final ExpansionState state = expansionState;
+
+        if (null == state) {
+            return;
+        }
+
+        expansionState = null;
+
+        for (final TreeNodeItem item : items) {
+            final ExpansionState childState = state.get(item.getValue());
+
+            if (null != childState) {
+                item.expansionState = childState.isEmpty() ? null : childState;
+                item.setExpanded(true);
+            }
+        }
+    }
+
+    private static boolean isSame(final List<? extends TreeItem<Node>> items, final List<? extends TreeItem<Node>> children) {
+        if (items.size() != children.size()) {
+            return false;
+        }
+
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i) != children.get(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
 
-        updateIcon(isExpanded());
+    /**
+     * Disposes this item and all its converted children. Called on the FX
+     * thread once the item was removed from the tree.
+     */
+    void dispose() {
+        childrenGeneration++;
+        cancelEviction();
+        cancelChildrenLoad();
+        cancelPrefetch();
+        releasePrefetched();
+        resolveReveals(new CancellationException());
+
+        if (null != childNodesListener) {
+            nodeWrapper.childNodes().removeListener(childNodesListener);
+            childNodesListener = null;
+        }
 
-        // leaf
-        if (!getValue().isLeaf()) {
-            getChildren().setAll(Collections.singleton(new TreeNodeItem(new NodeWrapper(createWaitNode()))));
+        if (null != icon) {
+            icon.unbind();
         }
+
+        convertedNodes.values().forEach(TreeNodeItem::dispose);
+        convertedNodes.clear();
+        nodeWrapper.dispose();
     }
 
     public StringProperty textProperty() {
@@ -88,13 +456,34 @@ final class TreeNodeItem extends TreeItem<Node> {
         return nodeWrapper.contextMenuProperty();
     }
 
+    void prepareContextMenu() {
+        nodeWrapper.prepareContextMenu();
+    }
+
+    /**
+     * The icon or the opened icon of the node, depending on whether the item
+     * is expanded. Must be called on the FX thread.
+     */
+    ObservableValue<Image> iconProperty() {
+        if (null == icon) {
+            icon = new SimpleObjectProperty<>();
+            updateIcon(isExpanded());
+        }
+
+        return icon;
+    }
+
     private void updateIcon(final Boolean isExpanded) {
-        imageView.imageProperty().unbind();
+        if (null == icon) {
+            return;
+        }
 
-        if (leafProperty().get() || Boolean.FALSE.equals(isExpanded)) {
-            imageView.imageProperty().bind(nodeWrapper.nodeIconProperty());
+        icon.unbind();
+
+        if (isLeaf() || Boolean.FALSE.equals(isExpanded)) {
+            icon.bind(nodeWrapper.nodeIconProperty());
         } else if (Boolean.TRUE.equals(isExpanded)) {
-            imageView.imageProperty().bind(nodeWrapper.nodeIconOpenedProperty());
+            icon.bind(nodeWrapper.nodeIconOpenedProperty());
         }
     }
 
@@ -111,18 +500,83 @@ final class TreeNodeItem extends TreeItem<Node> {
         return hash;
     }
 
-    private static Node createWaitNode() {
-        final AbstractNode an = new AbstractNode(Children.LEAF) {
+    private static final class Reveal {
+
+        private final Node node;
+        private final CompletableFuture<TreeNodeItem> future;
+
+        Reveal(final Node node, final CompletableFuture<TreeNodeItem> future) {
+            this.node = node;
+            this.future = future;
+        }
+    }
+
+    /**
+     * The expanded descendants of an item, by the names of their nodes.
+     */
+    private static final class ExpansionState {
+
+        private final Map<String, ExpansionState> expanded = new HashMap<>();
 
-            @Override
-            public Action[] getActions(boolean context) {
-                return new Action[0];
+        static ExpansionState of(final TreeNodeItem item) {
+            final ExpansionState state = new ExpansionState();
+
+            for (final TreeNodeItem child : item.convertedNodes.values()) {
+                if (child.isExpanded()) {
+                    state.expanded.put(child.getValue().getName(), of(child));
+                }
             }
-        };
 
-        an.setDisplayName(NbBundle.getMessage(ChildFactory.class, "LBL_WAIT")); //NOI18N
-        an.setIconBaseWithExtension("org/openide/nodes/wait.gif"); //NOI18N
+            return state;
+        }
+
+        ExpansionState get(final Node node) {
+            return expanded.get(node.getName());
+        }
+
+        boolean isEmpty() {
+            return expanded.isEmpty();
+        }
+    }
 
-        return an;
+    /**
+     * @return a plain item showing the shared wait node, shown while the
+     * children of an expanded item are loaded
+     */
+    static TreeItem<Node> createWaitItem() {
+        return new TreeItem<>(WaitNode.NODE);
+    }
+
+    static boolean isWaitItem(final TreeItem<Node> item) {
+        return (null != item) && (WaitNode.NODE == item.getValue());
+    }
+
+    /**
+     * @return the icon of the wait node, to be shown by one ImageView per
+     * cell
+     */
+    static Image getWaitImage() {
+        return WaitNode.IMAGE;
+    }
+
+    private static final class WaitNode {
+
+        private static final Node NODE = createWaitNode();
+        private static final Image IMAGE = NBFxImageUtilities.getImage(ImageUtilities.loadImage("org/openide/nodes/wait.gif")); //NOI18N
+
+        private static Node createWaitNode() {
+            final AbstractNode an = new AbstractNode(Children.LEAF) {
+
+                @Override
+                public Action[] getActions(boolean context) {
+                    return new Action[0];
+                }
+            };
+
+            an.setDisplayName(NbBundle.getMessage(ChildFactory.class, "LBL_WAIT")); //NOI18N
+            an.setIconBaseWithExtension("org/openide/nodes/wait.gif"); //NOI18N
+
+            return an;
+        }
     }
 }
@@ -0,0 +1,58 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2015 NBFx.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.nbfx.explorer.view.tree;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.nbfx.util.NBFxThreading;
+import org.nbfx.util.NBFxUtilities;
+
+/**
+ * Policy for loading children of tree items before they are expanded. The
+ * loads run on a threading of their own with a throughput of one, so they
+ * never compete with loads the user waits for, and stop once the children
+ * loaded ahead of time but not yet shown exceed a cap.
+ */
+final class TreePrefetch {
+
+    static final NBFxThreading THREADING = NBFxUtilities.createBackgroundThreading("NBFxTreePrefetch", 1);
+    // number of siblings whose children are prefetched when their parent is expanded
+    static final int FAN_OUT = Integer.getInteger("NBFxTreePrefetchFanOut", 16);
+    private static final int MAX_NODES = Integer.getInteger("NBFxTreePrefetchMaxNodes", 10000);
+    private static final AtomicInteger NODES = new AtomicInteger(0);
+
+    private TreePrefetch() {
+    }
+
+    static boolean isAllowed() {
+        return NODES.get() < MAX_NODES;
+    }
+
+    static void acquire(final int nodes) {
+        NODES.addAndGet(nodes);
+    }
+
+    static void release(final int nodes) {
+        NODES.addAndGet(-nodes);
+    }
+}
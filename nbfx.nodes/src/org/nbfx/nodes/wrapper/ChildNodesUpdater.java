@@ -0,0 +1,184 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2015 NBFx.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.nbfx.nodes.wrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javafx.collections.ObservableList;
+import org.nbfx.util.NBFxThreading;
+import org.nbfx.util.NBFxUtilities;
+import org.openide.nodes.Node;
+import org.openide.nodes.NodeMemberEvent;
+import org.openide.nodes.NodeReorderEvent;
+
+/**
+ * Single pipeline for all updates of a {@code childNodes} list. Updates may be
+ * submitted from any thread; they are merged and applied on the FX thread by
+ * at most one pending runnable. A single pending event is applied as exact
+ * delta, several pending updates collapse into the latest known snapshot.
+ * Snapshots loaded by a reader are not newer than the events submitted while
+ * they were read, so those events win, see {@link #load(List, long)}.
+ */
+final class ChildNodesUpdater implements Runnable {
+
+    private final ObservableList<Node> childNodes;
+    private List<Update> pending = new ArrayList<>();
+    private List<CompletableFuture<Void>> futures = new ArrayList<>();
+    private boolean isScheduled = false;
+    private long events = 0; // guarded by this
+    private List<Node> eventSnapshot = null; // guarded by this, null if the latest event had none
+
+    ChildNodesUpdater(final ObservableList<Node> childNodes) {
+        this.childNodes = childNodes;
+    }
+
+    ObservableList<Node> getList() {
+        return childNodes;
+    }
+
+    /**
+     * @return the number of events submitted so far, to be passed to
+     * {@link #load(List, long)} by a reader about to read the children
+     */
+    synchronized long getEventCount() {
+        return events;
+    }
+
+    /**
+     * Submits the {@code snapshot} read by a reader that started reading
+     * after {@code eventCount} events. If further events were submitted
+     * since, the snapshot may be older than them: the latest event snapshot
+     * is applied instead, or nothing if that is not known.
+     */
+    CompletableFuture<Void> load(final List<Node> snapshot, final long eventCount) {
+        return submit(false, () -> {
+            final List<Node> latest = (eventCount == events) ? snapshot : eventSnapshot;
+
+            return (null == latest) ? new Update(null, children -> {
+            }) : snapshotUpdate(latest);
+        });
+    }
+
+    CompletableFuture<Void> setAll(final List<Node> snapshot) {
+        return submit(true, () -> snapshotUpdate(snapshot));
+    }
+
+    CompletableFuture<Void> apply(final NodeMemberEvent nme) {
+        return submit(true, () -> new Update(nme.getSnapshot(), children -> ChildrenDeltas.apply(children, nme)));
+    }
+
+    CompletableFuture<Void> apply(final NodeReorderEvent nre) {
+        return submit(true, () -> new Update(nre.getSnapshot(), children -> ChildrenDeltas.apply(children, nre)));
+    }
+
+    CompletableFuture<Void> remove(final Node node) {
+        return submit(true, () -> new Update(null, children -> children.remove(node)));
+    }
+
+    private static Update snapshotUpdate(final List<Node> snapshot) {
+        return new Update(snapshot, children -> ChildrenDeltas.apply(children, snapshot));
+    }
+
+    /**
+     * @param isEvent whether the update comes from the node rather than from
+     * a reader of its children
+     * @param factory creates the update, while this updater is locked
+     */
+    private CompletableFuture<Void> submit(final boolean isEvent, final Supplier<Update> factory) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final boolean schedule;
+
+        synchronized (this) {
+            final Update update = factory.get();
+
+            if (isEvent) {
+                events++;
+                eventSnapshot = update.snapshot;
+            }
+
+            if (null != update.snapshot) {
+                // a snapshot supersedes everything submitted before
+                pending.clear();
+            }
+
+            pending.add(update);
+            futures.add(future);
+            schedule = !isScheduled;
+            isScheduled = true;
+        }
+
+        if (schedule) {
+            NBFxUtilities.FX.runLater(NBFxThreading.Priority.BULK, this);
+        }
+
+        return future;
+    }
+
+    @Override
+    public void run() {
+        final List<Update> updates;
+        final List<CompletableFuture<Void>> completed;
+
+        synchronized (this) {
+            updates = pending;
+            completed = futures;
+            pending = new ArrayList<>();
+            futures = new ArrayList<>();
+            isScheduled = false;
+        }
+
+        try {
+            int last = updates.size() - 1;
+
+            while ((last >= 0) && (null == updates.get(last).snapshot)) {
+                last--;
+            }
+
+            if ((1 < updates.size()) && (last >= 0)) {
+                // only the latest snapshot matters, the updates leading to it
+                // would just fire intermediate changes
+                ChildrenDeltas.apply(childNodes, updates.get(last).snapshot);
+                updates.subList(last + 1, updates.size()).forEach(u -> u.operation.accept(childNodes));
+            } else {
+                updates.forEach(u -> u.operation.accept(childNodes));
+            }
+        } finally {
+            completed.forEach(f -> f.complete(null));
+        }
+    }
+
+    private static final class Update {
+
+        private final List<Node> snapshot;
+        private final Consumer<ObservableList<Node>> operation;
+
+        Update(final List<Node> snapshot, final Consumer<ObservableList<Node>> operation) {
+            this.snapshot = snapshot;
+            this.operation = operation;
+        }
+    }
+}
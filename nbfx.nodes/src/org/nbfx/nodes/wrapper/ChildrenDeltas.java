@@ -0,0 +1,185 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2015 NBFx.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.nbfx.nodes.wrapper;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.openide.nodes.Node;
+import org.openide.nodes.NodeMemberEvent;
+import org.openide.nodes.NodeReorderEvent;
+
+/**
+ * Applies the deltas of {@code NodeMemberEvent}s and {@code NodeReorderEvent}s
+ * to a list of child nodes, so listeners of the list see exactly what changed.
+ * If the list does not match the state the event was fired for, the list is
+ * brought in line with the snapshot of the event instead.
+ */
+final class ChildrenDeltas {
+
+    private ChildrenDeltas() {
+    }
+
+    static void apply(final ObservableList<Node> children, final NodeMemberEvent nme) {
+        final List<Node> snapshot = nme.getSnapshot();
+        final boolean applied = nme.isAddEvent()
+                ? applyAdded(children, nme.getDelta(), nme.getDeltaIndices(), snapshot)
+                : applyRemoved(children, nme.getDelta(), nme.getDeltaIndices(), snapshot);
+
+        if (!applied) {
+            apply(children, snapshot);
+        }
+    }
+
+    /**
+     * Brings {@code children} in line with {@code snapshot}, only touching the
+     * range between the common prefix and the common suffix of both lists.
+     */
+    static void apply(final ObservableList<Node> children, final List<Node> snapshot) {
+        final int oldSize = children.size();
+        final int newSize = snapshot.size();
+        int prefix = 0;
+        int suffix = 0;
+
+        while ((prefix < oldSize) && (prefix < newSize) && (children.get(prefix) == snapshot.get(prefix))) {
+            prefix++;
+        }
+
+        while ((suffix < oldSize - prefix) && (suffix < newSize - prefix)
+                && (children.get(oldSize - 1 - suffix) == snapshot.get(newSize - 1 - suffix))) {
+            suffix++;
+        }
+
+        if (prefix + suffix == oldSize) {
+            if (prefix + suffix < newSize) {
+                children.addAll(prefix, snapshot.subList(prefix, newSize - suffix));
+            }
+        } else if (prefix + suffix == newSize) {
+            children.remove(prefix, oldSize - suffix);
+        } else if ((0 == prefix) && (0 == suffix)) {
+            children.setAll(snapshot);
+        } else {
+            children.subList(prefix, oldSize - suffix).clear();
+            children.addAll(prefix, snapshot.subList(prefix, newSize - suffix));
+        }
+    }
+
+    static void apply(final ObservableList<Node> children, final NodeReorderEvent nre) {
+        final List<Node> snapshot = nre.getSnapshot();
+
+        if (!applyReordered(children, snapshot)) {
+            apply(children, snapshot);
+        }
+    }
+
+    private static boolean applyAdded(final ObservableList<Node> children, final Node[] delta, final int[] indices, final List<Node> snapshot) {
+        if ((null == delta) || (null == indices) || (delta.length != indices.length)
+                || (children.size() + delta.length != snapshot.size())) {
+            return false;
+        }
+
+        for (int i = 0; i < indices.length; i++) {
+            if ((indices[i] >= snapshot.size()) || (snapshot.get(indices[i]) != delta[i])) {
+                return false;
+            }
+        }
+
+        // indices are ascending and relative to the new list, so inserting
+        // runs of adjacent indices front to back ends up in the right place
+        for (int start = 0, end; start < indices.length; start = end) {
+            end = endOfRun(indices, start);
+            children.addAll(indices[start], Arrays.asList(delta).subList(start, end));
+        }
+
+        return true;
+    }
+
+    private static boolean applyRemoved(final ObservableList<Node> children, final Node[] delta, final int[] indices, final List<Node> snapshot) {
+        if ((null == delta) || (null == indices) || (delta.length != indices.length)
+                || (children.size() - delta.length != snapshot.size())) {
+            return false;
+        }
+
+        for (int i = 0; i < indices.length; i++) {
+            if ((indices[i] >= children.size()) || (children.get(indices[i]) != delta[i])) {
+                return false;
+            }
+        }
+
+        // indices are ascending and relative to the old list, so runs are
+        // removed back to front to keep the remaining indices valid
+        for (int end = indices.length, start; end > 0; end = start) {
+            start = startOfRun(indices, end);
+            children.remove(indices[start], indices[end - 1] + 1);
+        }
+
+        return true;
+    }
+
+    private static boolean applyReordered(final ObservableList<Node> children, final List<Node> snapshot) {
+        if (children.size() != snapshot.size()) {
+            return false;
+        }
+
+        final Map<Node, Integer> positions = new IdentityHashMap<>(snapshot.size());
+
+        for (int i = 0; i < snapshot.size(); i++) {
+            positions.put(snapshot.get(i), i);
+        }
+
+        for (final Node child : children) {
+            if (!positions.containsKey(child)) {
+                return false;
+            }
+        }
+
+        // fires a single permutation change
+        FXCollections.sort(children, (n1, n2) -> Integer.compare(positions.get(n1), positions.get(n2)));
+
+        return true;
+    }
+
+    private static int endOfRun(final int[] indices, final int start) {
+        int end = start + 1;
+
+        while ((end < indices.length) && (indices[end] == indices[end - 1] + 1)) {
+            end++;
+        }
+
+        return end;
+    }
+
+    private static int startOfRun(final int[] indices, final int end) {
+        int start = end - 1;
+
+        while ((start > 0) && (indices[start - 1] == indices[start] - 1)) {
+            start--;
+        }
+
+        return start;
+    }
+}
@@ -28,25 +28,21 @@ import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import org.openide.util.Parameters;
 
+/**
+ * Exposes a FeatureDescriptor through JavaFX properties. The properties are
+ * only created on first access; until then the descriptor itself is the only
+ * state, which keeps wrappers that are never shown small.
+ */
 public class FeatureDescriptorWrapper<T extends FeatureDescriptor> {
 
-    private final StringProperty nameProperty;
-    private final StringProperty displayNameProperty;
-    private final StringProperty shortDescriptionProperty;
+    private volatile StringProperty nameProperty = null;
+    private volatile StringProperty displayNameProperty = null;
+    private volatile StringProperty shortDescriptionProperty = null;
     private final T value;
 
     protected FeatureDescriptorWrapper(final T value) {
         Parameters.notNull("t", value);
 
-        nameProperty = new SimpleStringProperty(value.getName());
-        nameProperty.addListener((ov, oldValue, newValue) -> value.setName(newValue));
-
-        displayNameProperty = new SimpleStringProperty(value.getDisplayName());
-        displayNameProperty.addListener((ov, oldValue, newValue) -> value.setDisplayName(newValue));
-
-        shortDescriptionProperty = new SimpleStringProperty(value.getShortDescription());
-        shortDescriptionProperty.addListener((ov, oldValue, newValue) -> value.setShortDescription(newValue));
-
         this.value = value;
     }
 
@@ -55,14 +51,101 @@ public class FeatureDescriptorWrapper<T extends FeatureDescriptor> {
     }
 
     public final StringProperty nameProperty() {
-        return nameProperty;
+        StringProperty property = nameProperty;
+
+        if (null == property) {
+            synchronized (this) {
+                property = nameProperty;
+
+                if (null == property) {
+                    propertiesRequested();
+                    property = new SimpleStringProperty(value.getName());
+                    property.addListener((ov, oldValue, newValue) -> value.setName(newValue));
+                    nameProperty = property;
+                }
+            }
+        }
+
+        return property;
     }
 
     public final StringProperty displayNameProperty() {
-        return displayNameProperty;
+        StringProperty property = displayNameProperty;
+
+        if (null == property) {
+            synchronized (this) {
+                property = displayNameProperty;
+
+                if (null == property) {
+                    propertiesRequested();
+                    property = new SimpleStringProperty(value.getDisplayName());
+                    property.addListener((ov, oldValue, newValue) -> value.setDisplayName(newValue));
+                    displayNameProperty = property;
+                }
+            }
+        }
+
+        return property;
     }
 
     public final StringProperty shortDescriptionProperty() {
-        return shortDescriptionProperty;
+        StringProperty property = shortDescriptionProperty;
+
+        if (null == property) {
+            synchronized (this) {
+                property = shortDescriptionProperty;
+
+                if (null == property) {
+                    propertiesRequested();
+                    property = new SimpleStringProperty(value.getShortDescription());
+                    property.addListener((ov, oldValue, newValue) -> value.setShortDescription(newValue));
+                    shortDescriptionProperty = property;
+                }
+            }
+        }
+
+        return property;
+    }
+
+    /**
+     * Called before one of the properties is created, e.g. to start listening
+     * to the descriptor so that no change gets lost.
+     */
+    protected void propertiesRequested() {
+    }
+
+    /**
+     * Updates {@link #nameProperty()} from the descriptor, if it was created.
+     */
+    protected final void refreshName() {
+        final StringProperty property = nameProperty;
+
+        if (null != property) {
+            property.set(value.getName());
+        }
+    }
+
+    /**
+     * Updates {@link #displayNameProperty()} from the descriptor, if it was
+     * created.
+     */
+    protected final void refreshDisplayName() {
+        final StringProperty property = displayNameProperty;
+
+        if (null != property) {
+            property.set(value.getDisplayName());
+        }
+    }
+
+    /**
+     * Updates {@link #shortDescriptionProperty()} from the descriptor, if it
+     * was created.
+     */
+    protected final void refreshShortDescription() {
+        final StringProperty property = shortDescriptionProperty;
+
+        if (null != property) {
+            property.set(value.getShortDescription());
+        }
     }
 }
@@ -25,12 +25,25 @@ package org.nbfx.nodes.wrapper;
 
 import java.beans.BeanInfo;
 import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.beans.property.ReadOnlyObjectWrapper;
@@ -45,116 +58,610 @@ import org.nbfx.actions.MenuItemsConverter;
 import org.nbfx.util.NBFxImageUtilities;
 import org.nbfx.nodes.properties.NBFxNodeProperty;
 import org.nbfx.nodes.properties.NBFxNodePropertyUtility;
+import org.nbfx.util.NBFxThreading;
 import org.nbfx.util.NBFxUtilities;
 import org.nbfx.util.ParametrizedPCL;
+import org.openide.nodes.ChildFactory;
 import org.openide.nodes.Node;
 import org.openide.nodes.Node.PropertySet;
 import org.openide.nodes.NodeAdapter;
 import org.openide.nodes.NodeEvent;
+import org.openide.nodes.NodeListener;
 import org.openide.nodes.NodeMemberEvent;
 import org.openide.nodes.NodeReorderEvent;
-import org.openide.util.RequestProcessor;
+import org.openide.util.ImageUtilities;
+import org.openide.util.NbBundle;
+import org.openide.util.Parameters;
+import org.openide.util.WeakListeners;
 
 public class NodeWrapper extends FeatureDescriptorWrapper<Node> {
 
-    private static final RequestProcessor RP = new RequestProcessor(NodeWrapper.class.getSimpleName(), 4);
+    private static final Logger LOG = Logger.getLogger(NodeWrapper.class.getName());
+    private static final ReferenceQueue<Node> STALE_NODES = new ReferenceQueue<>();
+    private static final ReferenceQueue<NodeWrapper> STALE_WRAPPERS = new ReferenceQueue<>();
+    private static final Map<NodeKey, Reference<NodeWrapper>> WRAPPERS = new ConcurrentHashMap<>();
+    private static final AtomicIntegerFieldUpdater<NodeWrapper> USERS = AtomicIntegerFieldUpdater.newUpdater(NodeWrapper.class, "users");
+    private static final AtomicIntegerFieldUpdater<NodeWrapper> CONTEXT_MENU_VALID = AtomicIntegerFieldUpdater.newUpdater(NodeWrapper.class, "contextMenuValid");
     private static final int ICON_KEY = Integer.getInteger("NBFxNodeIcon", BeanInfo.ICON_COLOR_16x16);
-    private final ObjectProperty<Image> nodeIconProperty = new SimpleObjectProperty<>();
-    private final ObjectProperty<Image> nodeIconOpenedProperty = new SimpleObjectProperty<>();
-    private final ReadOnlyObjectWrapper<ContextMenu> contextMenuProperty = new ReadOnlyObjectWrapper<>();
-    private final ObservableList<Node> childNodes = FXCollections.<Node>observableArrayList();
+    // the state below is created on first access, most wrappers never need it
+    private volatile LazyImageProperty nodeIconProperty = null;
+    private volatile LazyImageProperty nodeIconOpenedProperty = null;
+    private volatile ReadOnlyObjectWrapper<ContextMenu> contextMenuProperty = null;
+    // 1 while the items of the context menu match the lookup of the node
+    private volatile int contextMenuValid = 0;
+    private volatile PropertyModel propertyModel = null;
+    private int propertyModelVersion = 0; // guarded by this
+    private volatile Map<String, CachedValue<?>> cachedValues = null;
+    private volatile Listening listening = null;
+    private volatile ObservableList<Node> childNodes = null;
+    private volatile ChildNodesUpdater childNodesUpdater = null;
+    private ChildrenLoad childrenLoad = null; // guarded by this
+    private volatile PagedChildren pagedChildren = null;
+    // number of acquire() calls not yet balanced by dispose(), -1 once disposed
+    private volatile int users = 0;
 
-    public NodeWrapper(final Node node) {
-        super(node);
+    /**
+     * Returns the canonical wrapper of the {@code node}. All callers asking
+     * for the same {@code Node} instance share one wrapper (and thus one set
+     * of listeners and converted icons) as long as it is referenced.
+     */
+    public static NodeWrapper of(final Node node) {
+        Parameters.notNull("node", node);
+        expungeStaleNodes();
 
-        final ParametrizedPCL ppcl = new ParametrizedPCL();
+        final NodeKey key = new NodeKey(node);
+        NodeWrapper nodeWrapper = get(WRAPPERS.get(key));
 
-        ppcl.addPropertyChangeListener(Node.PROP_DISPLAY_NAME, NBFxUtilities.FX, e -> displayNameProperty().set(node.getDisplayName()));
-        ppcl.addPropertyChangeListener(Node.PROP_NAME, e -> nameProperty().set(node.getName()));
-        ppcl.addPropertyChangeListener(Node.PROP_SHORT_DESCRIPTION, e -> shortDescriptionProperty().set(node.getShortDescription()));
-        ppcl.addPropertyChangeListener(Node.PROP_ICON, NBFxUtilities.FX, e -> nodeIconProperty().set(NBFxImageUtilities.getImage((null == e.getNewValue())
-                ? getValue().getIcon(ICON_KEY)
-                : e.getNewValue())));
-        ppcl.addPropertyChangeListener(Node.PROP_LEAF, e -> childNodes.setAll(Collections.<Node>emptyList()));
-        ppcl.addPropertyChangeListener(Node.PROP_OPENED_ICON, NBFxUtilities.FX, e -> nodeIconOpenedProperty().set(NBFxImageUtilities.getImage((null == e.getNewValue())
-                ? getValue().getOpenedIcon(ICON_KEY)
-                : e.getNewValue())));
+        if (null == nodeWrapper) {
+            synchronized (WRAPPERS) {
+                nodeWrapper = get(WRAPPERS.get(key));
 
-        node.addPropertyChangeListener(ppcl);
+                if (null == nodeWrapper) {
+                    nodeWrapper = new NodeWrapper(node);
+                    WRAPPERS.put(key, new WrapperReference(nodeWrapper, key));
+                }
+            }
+        }
 
-        node.addNodeListener(new NodeAdapter() {
+        return nodeWrapper;
+    }
 
-            @Override
-            public void childrenAdded(final NodeMemberEvent nme) {
-                NBFxUtilities.SWING.ensureThread();
-                childNodes.setAll(nme.getSnapshot());
+    /**
+     * Like {@link #of(Node)}, but the returned wrapper is also
+     * {@link #acquire() acquired}, i.e. it has to be {@link #dispose()
+     * disposed} by the caller once no longer needed.
+     */
+    public static NodeWrapper acquire(final Node node) {
+        while (true) {
+            final NodeWrapper nodeWrapper = of(node);
+
+            // fails only if it was disposed concurrently, of() will not return it again
+            if (nodeWrapper.tryAcquire()) {
+                return nodeWrapper;
             }
+        }
+    }
+
+    private static NodeWrapper get(final Reference<NodeWrapper> reference) {
+        final NodeWrapper nodeWrapper = (null == reference) ? null : reference.get();
+
+        return ((null == nodeWrapper) || nodeWrapper.isDisposed()) ? null : nodeWrapper;
+    }
+
+    /**
+     * Drops the entries of collected nodes as well as the ones of collected
+     * wrappers, as a node may well outlive its wrapper.
+     */
+    private static void expungeStaleNodes() {
+        Reference<? extends Node> reference;
+
+        while (null != (reference = STALE_NODES.poll())) {
+            WRAPPERS.remove((NodeKey) reference);
+        }
+
+        Reference<? extends NodeWrapper> wrapperReference;
+
+        while (null != (wrapperReference = STALE_WRAPPERS.poll())) {
+            final WrapperReference stale = (WrapperReference) wrapperReference;
+
+            // unless the entry got a new wrapper meanwhile
+            WRAPPERS.remove(stale.key, stale);
+        }
+    }
+
+    /**
+     * Creates a wrapper that is not shared with other callers. Use
+     * {@link #of(Node)} or {@link #acquire(Node)} to get the canonical
+     * wrapper of the node instead.
+     */
+    protected NodeWrapper(final Node node) {
+        super(node);
+    }
+
+    /**
+     * Starts listening to the node, which is only needed once some state of
+     * the wrapper has been created. Called before creating the state, so
+     * that no change gets lost.
+     */
+    private Listening listen() {
+        Listening current = listening;
 
-            @Override
-            public void childrenRemoved(final NodeMemberEvent nme) {
-                NBFxUtilities.SWING.ensureThread();
-                childNodes.setAll(nme.getSnapshot());
+        if (null == current) {
+            synchronized (this) {
+                current = listening;
+
+                if (null == current) {
+                    current = new Listening();
+                    listening = current;
+
+                    if (!isDisposed()) {
+                        current.attach();
+                    }
+                }
             }
+        }
+
+        return current;
+    }
+
+    @Override
+    protected void propertiesRequested() {
+        listen();
+    }
+
+    /**
+     * Registers a user of this wrapper. Each call has to be balanced by a
+     * call of {@link #dispose()}.
+     *
+     * @throws IllegalStateException if the wrapper is already disposed
+     */
+    public final NodeWrapper acquire() {
+        if (!tryAcquire()) {
+            throw new IllegalStateException("NodeWrapper is disposed: " + getValue()); //NOI18N
+        }
+
+        return this;
+    }
+
+    private boolean tryAcquire() {
+        while (true) {
+            final int current = users;
 
-            @Override
-            public void childrenReordered(final NodeReorderEvent nre) {
-                NBFxUtilities.SWING.ensureThread();
-                childNodes.setAll(nre.getSnapshot());
+            if (current < 0) {
+                return false;
+            } else if (USERS.compareAndSet(this, current, current + 1)) {
+                return true;
             }
+        }
+    }
+
+    /**
+     * Unregisters a user of this wrapper. When the last user is gone the
+     * wrapper stops listening to the node, drops its context menu and cached
+     * values and is no longer returned by {@link #of(Node)}. Wrappers that
+     * were never acquired are not affected.
+     */
+    public final void dispose() {
+        while (true) {
+            final int current = users;
+
+            if (current <= 0) {
+                return;
+            } else if (USERS.compareAndSet(this, current, (1 == current) ? -1 : current - 1)) {
+                if (1 == current) {
+                    release();
+                }
 
-            @Override
-            public void nodeDestroyed(final NodeEvent ne) {
-                NBFxUtilities.SWING.ensureThread();
-                childNodes.remove(ne.getNode());
+                return;
             }
+        }
+    }
+
+    public final boolean isDisposed() {
+        return users < 0;
+    }
+
+    private void release() {
+        final Node node = getValue();
+
+        WRAPPERS.computeIfPresent(new NodeKey(node), (key, reference) -> (this == reference.get()) ? null : reference);
+        final Listening current = listening;
+
+        if (null != current) {
+            current.detach();
+        }
+
+        invalidatePropertyModel();
+
+        final PagedChildren list = pagedChildren;
+
+        if (null != list) {
+            list.evict();
+        }
+
+        final ReadOnlyObjectWrapper<ContextMenu> property = contextMenuProperty;
 
-            @Override
-            public void propertyChange(final PropertyChangeEvent pce) {
-                ppcl.propertyChange(pce);
-                contextMenuProperty(); // forces init/update of contextmenu
+        NBFxUtilities.FX.runLater(() -> {
+            cachedValues = null;
+
+            if (null != property) {
+                final ContextMenu contextMenu = property.getValue();
+
+                if (null != contextMenu) {
+                    contextMenu.hide();
+                    contextMenu.getItems().clear();
+                }
             }
         });
-
-        nodeIconProperty().set(NBFxImageUtilities.getImage(node.getIcon(ICON_KEY)));
-        nodeIconOpenedProperty().set(NBFxImageUtilities.getImage(node.getOpenedIcon(ICON_KEY)));
     }
 
+    /**
+     * The opened icon of the node. It shows a shared placeholder until the
+     * icon, requested by the first call of this method, has been converted in
+     * the background.
+     */
     public final ObjectProperty<Image> nodeIconOpenedProperty() {
-        return nodeIconOpenedProperty;
+        LazyImageProperty property = nodeIconOpenedProperty;
+
+        if (null == property) {
+            synchronized (this) {
+                property = nodeIconOpenedProperty;
+
+                if (null == property) {
+                    listen();
+                    property = new LazyImageProperty(() -> getValue().getOpenedIcon(ICON_KEY));
+                    nodeIconOpenedProperty = property;
+                    property.reload(null);
+                }
+            }
+        }
+
+        return property;
     }
 
+    /**
+     * The icon of the node. It shows a shared placeholder until the icon,
+     * requested by the first call of this method, has been converted in the
+     * background.
+     */
     public final ObjectProperty<Image> nodeIconProperty() {
-        return nodeIconProperty;
+        LazyImageProperty property = nodeIconProperty;
+
+        if (null == property) {
+            synchronized (this) {
+                property = nodeIconProperty;
+
+                if (null == property) {
+                    listen();
+                    property = new LazyImageProperty(() -> getValue().getIcon(ICON_KEY));
+                    nodeIconProperty = property;
+                    property.reload(null);
+                }
+            }
+        }
+
+        return property;
+    }
+
+    private static void reload(final LazyImageProperty property, final Object icon) {
+        if (null != property) {
+            property.reload(icon);
+        }
     }
 
+    /**
+     * The children of the node. The list is only modified on the FX thread.
+     */
     public final ObservableList<Node> childNodes() {
-        return childNodes;
+        return childNodesUpdater().getList();
     }
 
-    public final void addNotify() {
-        RP.post(() -> childNodes.setAll(getValue().getChildren().getNodes()));
+    private ChildNodesUpdater childNodesUpdater() {
+        ChildNodesUpdater updater = childNodesUpdater;
+
+        if (null == updater) {
+            synchronized (this) {
+                updater = childNodesUpdater;
+
+                if (null == updater) {
+                    listen();
+                    updater = new ChildNodesUpdater(FXCollections.<Node>observableArrayList());
+                    childNodesUpdater = updater;
+                }
+            }
+        }
+
+        return updater;
     }
 
-    public ReadOnlyObjectProperty<ContextMenu> contextMenuProperty() {
+    public final CompletableFuture<Void> addNotify() {
+        return addNotify(NBFxUtilities.BACKGROUND);
+    }
+
+    /**
+     * Loads the children of the node on the {@code threading}. While a load
+     * is pending, further calls join it instead of loading again (the
+     * {@code threading} of these calls is ignored). Cancelling the returned
+     * future withdraws the interest of the caller; the load itself is
+     * cancelled once all callers withdrew.
+     *
+     * @return completes on the FX thread once the children have been applied
+     * to {@link #childNodes()}
+     */
+    public final CompletableFuture<Void> addNotify(final NBFxThreading threading) {
+        final ChildNodesUpdater updater = childNodesUpdater();
+
         synchronized (this) {
-            if (null == contextMenuProperty.getValue()) {
-                contextMenuProperty.setValue(NBFxUtilities.FX.isCurrentThread() ? new ContextMenu() : NBFxUtilities.FX.get(ContextMenu::new));
+            while (true) {
+                if ((null == childrenLoad) || childrenLoad.isDone()) {
+                    childrenLoad = new ChildrenLoad(getValue(), threading, updater);
+                }
+
+                final CompletableFuture<Void> request = childrenLoad.request();
+
+                if (null != request) {
+                    return request;
+                }
+            }
+        }
+    }
+
+    /**
+     * The children of the node as a virtual list: its size is loaded on the
+     * {@code threading}, but children and their wrappers are only
+     * materialised a page at a time, when a view asks for an element of the
+     * page. Elements of pages not loaded yet are {@code null}. Intended for
+     * nodes with so many children that {@link #childNodes()} would be too
+     * expensive. The wrappers in the list are owned by it and must not be
+     * disposed by its users. The list is only accessed on the FX thread; it
+     * is created by the first call, later calls ignore {@code threading}.
+     */
+    public final ObservableList<NodeWrapper> pagedChildren(final NBFxThreading threading) {
+        PagedChildren list = pagedChildren;
+
+        if (null == list) {
+            synchronized (this) {
+                list = pagedChildren;
+
+                if (null == list) {
+                    listen();
+                    list = new PagedChildren(getValue(), threading);
+                    pagedChildren = list;
+                    list.invalidate();
+                }
+            }
+        }
+
+        return list;
+    }
+
+    private void invalidatePagedChildren() {
+        final PagedChildren list = pagedChildren;
+
+        if (null != list) {
+            list.invalidate();
+        }
+    }
+
+    /**
+     * The ContextMenu of the node. It is created with a disabled wait item
+     * and filled when it is about to be shown (or earlier by {@link #prepareContextMenu()}). The
+     * converted items are kept until the lookup of the node changes.
+     */
+    public ReadOnlyObjectProperty<ContextMenu> contextMenuProperty() {
+        ReadOnlyObjectWrapper<ContextMenu> property = contextMenuProperty;
+
+        if (null == property) {
+            synchronized (this) {
+                property = contextMenuProperty;
+
+                if (null == property) {
+                    listen();
+                    property = new ReadOnlyObjectWrapper<>();
+                    contextMenuProperty = property;
+                }
             }
         }
 
-        // update the content of the ContextMenu
-        NBFxUtilities.SWING.runLater(() -> {
-            final Collection<? extends MenuItem> convertMenuItems = MenuItemsConverter.convertMenuItems(getValue());
-            NBFxUtilities.FX.runLater(() -> contextMenuProperty.getValue().getItems().setAll(convertMenuItems));
+        final ReadOnlyObjectWrapper<ContextMenu> wrapper = property;
+
+        NBFxUtilities.FX.getExecutor().execute(() -> {
+            if (null == wrapper.getValue()) {
+                // JavaFX does not show (nor fire onShowing for) an empty menu
+                final ContextMenu contextMenu = new ContextMenu(createWaitItem());
+
+                contextMenu.setOnShowing(e -> prepareContextMenu());
+                wrapper.setValue(contextMenu);
+            }
         });
 
-        return contextMenuProperty.getReadOnlyProperty();
+        return wrapper.getReadOnlyProperty();
+    }
+
+    private static MenuItem createWaitItem() {
+        final MenuItem menuItem = new MenuItem(NbBundle.getMessage(ChildFactory.class, "LBL_WAIT")); //NOI18N
+
+        menuItem.setDisable(true);
+
+        return menuItem;
+    }
+
+    /**
+     * Converts the actions of the node into the items of the ContextMenu,
+     * unless the current items are still valid.
+     */
+    public void prepareContextMenu() {
+        if (CONTEXT_MENU_VALID.compareAndSet(this, 0, 1)) {
+            NBFxUtilities.SWING.supplyAsynch(() -> MenuItemsConverter.convertMenuItems(getValue()))
+                    .whenCompleteAsync((convertMenuItems, t) -> {
+                        final ContextMenu contextMenu = contextMenuProperty().getValue();
+
+                        if (null != t) {
+                            // converted again the next time the menu is about to show
+                            CONTEXT_MENU_VALID.set(this, 0);
+                            LOG.log(Level.WARNING, "Could not convert the actions of " + getValue(), t); //NOI18N
+                        } else if (null != contextMenu) {
+                            contextMenu.getItems().setAll(convertMenuItems);
+                        }
+
+                        if ((null != contextMenu) && ((null != t) || convertMenuItems.isEmpty())) {
+                            contextMenu.hide();
+                        }
+                    }, NBFxUtilities.FX.getExecutor());
+        }
+    }
+
+    private void invalidateContextMenu() {
+        if (0 == CONTEXT_MENU_VALID.getAndSet(this, 0)) {
+            return;
+        }
+
+        final ReadOnlyObjectWrapper<ContextMenu> property = contextMenuProperty;
+
+        if (null == property) {
+            return;
+        }
+
+        NBFxUtilities.FX.runLater(() -> {
+            final ContextMenu contextMenu = property.getValue();
+
+            if (null == contextMenu) {
+                return;
+            } else if (contextMenu.isShowing()) {
+                prepareContextMenu();
+            } else if (contextMenu.getItems().isEmpty()) {
+                // the node may have actions now, let the menu show to fill it
+                contextMenu.getItems().setAll(createWaitItem());
+            }
+        });
     }
 
+    /**
+     * The properties of the node grouped by the display name of their
+     * PropertySet. The model is built once and kept until the node fires
+     * {@code Node.PROP_PROPERTY_SETS}.
+     */
     public Map<String, List<NBFxNodeProperty<?>>> getNodeProperties() {
-        return getNodeProperties((null == getValue())
-                ? null
-                : getValue().getPropertySets());
+        return getPropertyModel().groups;
+    }
+
+    /**
+     * Looks up the property {@code name} of the node in the cached property
+     * model.
+     *
+     * @return {@code null} if there is no property {@code name} with values
+     * of {@code dataClass}
+     */
+    public <D> ObservableValue<D> getNodeProperty(final String name, final Class<D> dataClass) {
+        return getPropertyModel().get(name, dataClass);
+    }
+
+    /**
+     * Like {@link #getNodeProperty(String, Class)}, but the value is read
+     * once and kept: it is only read again when the node fires a change of
+     * the property {@code name}. Writing the value writes through to the
+     * node. Intended for cells that are refreshed far more often than the
+     * node changes.
+     *
+     * @return {@code null} if there is no property {@code name} with values
+     * of {@code dataClass}
+     */
+    public <D> ObservableValue<D> getCachedValue(final String name, final Class<D> dataClass) {
+        final Map<String, CachedValue<?>> cachedValues = cachedValues();
+        final CachedValue<?> cachedValue = cachedValues.get(name);
+
+        if ((null != cachedValue) && dataClass.equals(cachedValue.dataClass)) {
+            @SuppressWarnings("unchecked")
+            final ObservableValue<D> ov = (ObservableValue<D>) cachedValue;
+            return ov;
+        }
+
+        final ObservableValue<D> nodeProperty = getNodeProperty(name, dataClass);
+
+        if (!(nodeProperty instanceof NBFxNodeProperty)) {
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        final CachedValue<D> newCachedValue = new CachedValue<>(dataClass, (NBFxNodeProperty<D>) nodeProperty);
+
+        final CachedValue<?> existing = cachedValues.putIfAbsent(name, newCachedValue);
+
+        if (null == existing) {
+            // refreshed by Listening, which looks the name of a change up in the map
+            return newCachedValue;
+        } else if (dataClass.equals(existing.dataClass)) {
+            @SuppressWarnings("unchecked")
+            final ObservableValue<D> ov = (ObservableValue<D>) existing;
+            return ov;
+        } else {
+            return nodeProperty;
+        }
+    }
+
+    private Map<String, CachedValue<?>> cachedValues() {
+        Map<String, CachedValue<?>> map = cachedValues;
+
+        if (null == map) {
+            synchronized (this) {
+                map = cachedValues;
+
+                if (null == map) {
+                    listen();
+                    map = new ConcurrentHashMap<>(4);
+                    cachedValues = map;
+                }
+            }
+        }
+
+        return map;
+    }
+
+    private void rebindCachedValues() {
+        final Map<String, CachedValue<?>> map = cachedValues;
+
+        if (null != map) {
+            map.forEach((name, cachedValue) -> cachedValue.rebind(getNodeProperty(name, cachedValue.dataClass)));
+        }
+    }
+
+    private void refreshCachedValues() {
+        final Map<String, CachedValue<?>> map = cachedValues;
+
+        if (null != map) {
+            map.values().forEach(CachedValue::refresh);
+        }
+    }
+
+    private PropertyModel getPropertyModel() {
+        PropertyModel model = propertyModel;
+
+        if (null == model) {
+            // invalidated by Node.PROP_PROPERTY_SETS
+            listen();
+
+            final int version;
+
+            synchronized (this) {
+                version = propertyModelVersion;
+            }
+
+            model = new PropertyModel(getValue().getPropertySets());
+
+            synchronized (this) {
+                // a model built from property sets read before an invalidation is stale
+                if (version == propertyModelVersion) {
+                    propertyModel = model;
+                }
+            }
+        }
+
+        return model;
+    }
+
+    private synchronized void invalidatePropertyModel() {
+        propertyModelVersion++;
+        propertyModel = null;
     }
 
     public static Map<String, List<NBFxNodeProperty<?>>> getNodeProperties(final PropertySet[] propertySets) {
@@ -178,11 +685,11 @@ public class NodeWrapper extends FeatureDescriptorWrapper<Node> {
     }
 
     public static <D> ObservableValue<D> getValue(final NodeWrapper nodeWrapper, final String name, final Class<D> dataClass) {
-        return getValue((null == nodeWrapper) ? null : nodeWrapper.getValue(), name, dataClass);
+        return (null == nodeWrapper) ? null : nodeWrapper.getNodeProperty(name, dataClass);
     }
 
     public static <D> ObservableValue<D> getValue(final Node node, final String name, final Class<D> dataClass) {
-        return getValue((null == node) ? null : node.getPropertySets(), name, dataClass);
+        return (null == node) ? null : of(node).getNodeProperty(name, dataClass);
     }
 
     public static <D> ObservableValue<D> getValue(final PropertySet[] propertySets, final String name, final Class<D> dataClass) {
@@ -206,4 +713,317 @@ public class NodeWrapper extends FeatureDescriptorWrapper<Node> {
 
         return null;
     }
+
+    private static final class PropertyModel {
+
+        private final Map<String, List<NBFxNodeProperty<?>>> groups;
+        private final Map<String, List<Node.Property<?>>> nodePropertiesByName = new HashMap<>();
+        private final Map<Node.Property<?>, NBFxNodeProperty<?>> properties = new IdentityHashMap<>();
+
+        PropertyModel(final PropertySet[] propertySets) {
+            final Map<String, List<NBFxNodeProperty<?>>> map = new LinkedHashMap<>();
+
+            for (final PropertySet propertySet : (null == propertySets) ? new PropertySet[0] : propertySets) {
+                final Node.Property<?>[] nodeProperties = propertySet.getProperties();
+                final List<NBFxNodeProperty<?>> group = new ArrayList<>(nodeProperties.length);
+
+                for (final Node.Property<?> nodeProperty : nodeProperties) {
+                    final NBFxNodeProperty<?> property = NBFxNodePropertyUtility.createNBFxNodeProperty(nodeProperty);
+
+                    group.add(property);
+                    properties.put(nodeProperty, property);
+                    nodePropertiesByName.computeIfAbsent(nodeProperty.getName(), n -> new ArrayList<>(1)).add(nodeProperty);
+                }
+
+                map.put(propertySet.getDisplayName(), Collections.unmodifiableList(group));
+            }
+
+            groups = Collections.unmodifiableMap(map);
+        }
+
+        <D> ObservableValue<D> get(final String name, final Class<D> dataClass) {
+            for (final Node.Property<?> nodeProperty : nodePropertiesByName.getOrDefault(name, Collections.emptyList())) {
+                if (dataClass.isAssignableFrom(nodeProperty.getValueType())) {
+                    @SuppressWarnings("unchecked")
+                    final ObservableValue<D> ov = (ObservableValue<D>) properties.get(nodeProperty);
+                    return ov;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Listens to the node on behalf of the wrapper. The node only holds weak
+     * proxies of it, so it does not keep the wrapper alive.
+     */
+    private final class Listening extends NodeAdapter {
+
+        // batching, which keeps only the latest event per property name
+        private final ParametrizedPCL ppcl = new ParametrizedPCL.Builder()
+                .addPropertyChangeListener(Node.PROP_DISPLAY_NAME, NBFxUtilities.FX, e -> refreshDisplayName())
+                .addPropertyChangeListener(Node.PROP_NAME, e -> refreshName())
+                .addPropertyChangeListener(Node.PROP_SHORT_DESCRIPTION, e -> refreshShortDescription())
+                .addPropertyChangeListener(Node.PROP_ICON, e -> reload(nodeIconProperty, e.getNewValue()))
+                .addPropertyChangeListener(Node.PROP_OPENED_ICON, e -> reload(nodeIconOpenedProperty, e.getNewValue()))
+                .addPropertyChangeListener(Node.PROP_LEAF, e -> {
+                    final ChildNodesUpdater updater = childNodesUpdater;
+
+                    if (null != updater) {
+                        updater.setAll(Collections.<Node>emptyList());
+                    }
+
+                    invalidatePagedChildren();
+                })
+                .addPropertyChangeListener(Node.PROP_COOKIE, e -> invalidateContextMenu())
+                .addPropertyChangeListener(Node.PROP_PROPERTY_SETS, e -> {
+                    invalidatePropertyModel();
+                    NBFxUtilities.FX.runLater(NodeWrapper.this::rebindCachedValues);
+                })
+                // a null property name means that all properties may have changed
+                .addPropertyChangeListener(null, NBFxUtilities.FX, e -> refreshCachedValues())
+                .build(true);
+        // the changes of the node's own properties arrive through the node listener
+        private final PropertyChangeListener weakPropertyChangeListener = WeakListeners.propertyChange(this, getValue());
+        private final NodeListener weakNodeListener = WeakListeners.create(NodeListener.class, this, getValue());
+
+        void attach() {
+            getValue().addPropertyChangeListener(weakPropertyChangeListener);
+            getValue().addNodeListener(weakNodeListener);
+        }
+
+        void detach() {
+            getValue().removePropertyChangeListener(weakPropertyChangeListener);
+            getValue().removeNodeListener(weakNodeListener);
+        }
+
+        @Override
+        public void childrenAdded(final NodeMemberEvent nme) {
+            final ChildNodesUpdater updater = childNodesUpdater;
+
+            if (null != updater) {
+                updater.apply(nme);
+            }
+
+            invalidatePagedChildren();
+        }
+
+        @Override
+        public void childrenRemoved(final NodeMemberEvent nme) {
+            final ChildNodesUpdater updater = childNodesUpdater;
+
+            if (null != updater) {
+                updater.apply(nme);
+            }
+
+            invalidatePagedChildren();
+        }
+
+        @Override
+        public void childrenReordered(final NodeReorderEvent nre) {
+            final ChildNodesUpdater updater = childNodesUpdater;
+
+            if (null != updater) {
+                updater.apply(nre);
+            }
+
+            invalidatePagedChildren();
+        }
+
+        @Override
+        public void nodeDestroyed(final NodeEvent ne) {
+            final ChildNodesUpdater updater = childNodesUpdater;
+
+            if (null != updater) {
+                updater.remove(ne.getNode());
+            }
+
+            invalidatePagedChildren();
+        }
+
+        @Override
+        public void propertyChange(final PropertyChangeEvent pce) {
+            ppcl.propertyChange(pce);
+
+            final Map<String, CachedValue<?>> map = cachedValues;
+            final String name = pce.getPropertyName();
+            final CachedValue<?> cachedValue = ((null == map) || (null == name)) ? null : map.get(name);
+
+            if (null != cachedValue) {
+                NBFxUtilities.FX.runLaterCoalesced(cachedValue, cachedValue::refresh);
+            }
+        }
+    }
+
+    /**
+     * A pending load of the children, shared by all callers of
+     * {@link #addNotify(NBFxThreading)} until it is done.
+     */
+    private static final class ChildrenLoad {
+
+        private final CompletableFuture<List<Node>> nodes;
+        private final CompletableFuture<Void> applied;
+        private int requests = 0;
+        private boolean isCancelled = false;
+
+        ChildrenLoad(final Node node, final NBFxThreading threading, final ChildNodesUpdater updater) {
+            // taken before reading, so events coming in meanwhile win over what is read
+            final long eventCount = updater.getEventCount();
+
+            this.nodes = threading.supplyAsynch(() -> Arrays.asList(node.getChildren().getNodes()));
+            this.applied = nodes.thenCompose(snapshot -> updater.load(snapshot, eventCount));
+        }
+
+        boolean isDone() {
+            return applied.isDone();
+        }
+
+        /**
+         * @return a future of its own for each caller, or {@code null} if
+         * the load was already cancelled
+         */
+        synchronized CompletableFuture<Void> request() {
+            if (isCancelled) {
+                return null;
+            }
+
+            final CompletableFuture<Void> request = applied.thenApply(v -> v);
+
+            requests++;
+            request.whenComplete((v, t) -> {
+                if (request.isCancelled()) {
+                    withdraw();
+                }
+            });
+
+            return request;
+        }
+
+        private synchronized void withdraw() {
+            if ((0 == --requests) && !applied.isDone()) {
+                isCancelled = true;
+                // a load that has not started yet is skipped altogether
+                nodes.cancel(false);
+                applied.cancel(false);
+            }
+        }
+    }
+
+    private static final class CachedValue<D> extends SimpleObjectProperty<D> {
+
+        private final Class<D> dataClass;
+        private volatile NBFxNodeProperty<D> nodeProperty;
+
+        CachedValue(final Class<D> dataClass, final NBFxNodeProperty<D> nodeProperty) {
+            super(nodeProperty.getValue());
+            this.dataClass = dataClass;
+            this.nodeProperty = nodeProperty;
+        }
+
+        void rebind(final ObservableValue<?> newNodeProperty) {
+            @SuppressWarnings("unchecked")
+            final NBFxNodeProperty<D> property = (newNodeProperty instanceof NBFxNodeProperty)
+                    ? (NBFxNodeProperty<D>) newNodeProperty
+                    : null;
+
+            nodeProperty = property;
+            refresh();
+        }
+
+        void refresh() {
+            final NBFxNodeProperty<D> property = nodeProperty;
+            super.set((null == property) ? null : property.getValue());
+        }
+
+        @Override
+        public void set(final D newValue) {
+            final NBFxNodeProperty<D> property = nodeProperty;
+
+            if (null != property) {
+                property.setValue(newValue);
+            }
+
+            refresh();
+        }
+    }
+
+    private static final class LazyImageProperty extends SimpleObjectProperty<Image> {
+
+        private static final AtomicIntegerFieldUpdater<LazyImageProperty> RELOADS = AtomicIntegerFieldUpdater.newUpdater(LazyImageProperty.class, "reloads");
+        private final Supplier<Object> iconSupplier;
+        private volatile int reloads = 0;
+
+        LazyImageProperty(final Supplier<Object> iconSupplier) {
+            super(Placeholder.IMAGE);
+            this.iconSupplier = iconSupplier;
+        }
+
+        void reload(final Object icon) {
+            final int reload = RELOADS.incrementAndGet(this);
+
+            // only the latest icon is worth converting
+            NBFxUtilities.BACKGROUND.runLaterCoalesced(this, () -> {
+                final Image image = NBFxImageUtilities.getImage((null == icon) ? iconSupplier.get() : icon);
+
+                // many icons may arrive at once, keep them out of the interactive lane
+                NBFxUtilities.FX.runLater(NBFxThreading.Priority.BULK, () -> {
+                    // an older conversion may finish after a newer one, as the background is multi-threaded
+                    if (reload == reloads) {
+                        set(image);
+                    }
+                });
+            });
+        }
+    }
+
+    private static final class Placeholder {
+
+        private static final Image IMAGE = NBFxImageUtilities.getImage(ImageUtilities.loadImage("org/openide/nodes/defaultNode.png")); //NOI18N
+    }
+
+    /**
+     * Weak value of the wrapper cache, knowing its key so that the entry can
+     * be dropped once the wrapper is collected.
+     */
+    private static final class WrapperReference extends WeakReference<NodeWrapper> {
+
+        private final NodeKey key;
+
+        WrapperReference(final NodeWrapper nodeWrapper, final NodeKey key) {
+            super(nodeWrapper, STALE_WRAPPERS);
+            this.key = key;
+        }
+    }
+
+    /**
+     * Weak key comparing {@code Node}s by identity, as {@code Node.equals} may
+     * be overridden (e.g. by {@code FilterNode}).
+     */
+    private static final class NodeKey extends WeakReference<Node> {
+
+        private final int hash;
+
+        NodeKey(final Node node) {
+            super(node, STALE_NODES);
+            this.hash = System.identityHashCode(node);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            } else if (o instanceof NodeKey) {
+                final Node node = get();
+                return (null != node) && (node == ((NodeKey) o).get());
+            } else {
+                return false;
+            }
+        }
+    }
 }
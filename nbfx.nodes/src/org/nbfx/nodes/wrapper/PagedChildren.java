@@ -0,0 +1,188 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2015 NBFx.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.nbfx.nodes.wrapper;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javafx.collections.ObservableListBase;
+import org.nbfx.util.NBFxThreading;
+import org.nbfx.util.NBFxUtilities;
+import org.openide.nodes.Children;
+import org.openide.nodes.Node;
+
+/**
+ * A virtual list of the children of a node. Only its size is known up
+ * front; children are materialised (and their wrappers acquired) a page at a
+ * time, when an element of the page is first asked for. Until then the
+ * elements of the page are {@code null}, a replace change is fired once the
+ * page has been loaded. Pages that have not been asked for recently are
+ * evicted and their wrappers disposed. Any change of the children reloads
+ * the size and drops all pages. Confined to the FX thread.
+ */
+final class PagedChildren extends ObservableListBase<NodeWrapper> {
+
+    private static final int PAGE_SIZE = Math.max(1, Integer.getInteger("NBFxChildrenPageSize", 256));
+    private static final int MAX_PAGES = Math.max(1, Integer.getInteger("NBFxChildrenMaxPages", 16));
+    private final Node node;
+    private final NBFxThreading threading;
+    private final Map<Integer, NodeWrapper[]> pages = new LinkedHashMap<Integer, NodeWrapper[]>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Integer, NodeWrapper[]> eldest) {
+            if (size() > MAX_PAGES) {
+                dispose(eldest.getValue());
+                return true;
+            } else {
+                return false;
+            }
+        }
+    };
+    private int size = 0;
+    private int generation = 0;
+
+    PagedChildren(final Node node, final NBFxThreading threading) {
+        this.node = node;
+        this.threading = threading;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public NodeWrapper get(final int index) {
+        NBFxUtilities.FX.ensureThread();
+
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size); //NOI18N
+        }
+
+        final Integer page = index / PAGE_SIZE;
+        NodeWrapper[] wrappers = pages.get(page);
+
+        if (null == wrappers) {
+            wrappers = new NodeWrapper[Math.min(PAGE_SIZE, size - page * PAGE_SIZE)];
+            pages.put(page, wrappers);
+            load(page, wrappers);
+        }
+
+        return wrappers[index % PAGE_SIZE];
+    }
+
+    /**
+     * Reloads the size (and thus all pages) once the current events have
+     * been processed; may be called on any thread.
+     */
+    void invalidate() {
+        NBFxUtilities.FX.runLaterCoalesced(this, this::refresh);
+    }
+
+    /**
+     * Drops all pages without firing a change, e.g. when the owning wrapper
+     * is disposed.
+     */
+    void evict() {
+        NBFxUtilities.FX.runLater(() -> {
+            generation++;
+            pages.values().forEach(PagedChildren::dispose);
+            pages.clear();
+        });
+    }
+
+    private void refresh() {
+        final int current = ++generation;
+
+        pages.values().forEach(PagedChildren::dispose);
+        pages.clear();
+
+        threading.supplyAsynch(() -> node.getChildren().getNodesCount())
+                .thenAcceptAsync(count -> {
+                    if (current != generation) {
+                        return;
+                    }
+
+                    beginChange();
+
+                    if (0 != size) {
+                        nextRemove(0, Collections.<NodeWrapper>nCopies(size, null));
+                    }
+
+                    size = count;
+
+                    if (0 != size) {
+                        nextAdd(0, size);
+                    }
+
+                    endChange();
+                }, NBFxUtilities.FX.getExecutor());
+    }
+
+    private void load(final Integer page, final NodeWrapper[] wrappers) {
+        final int current = generation;
+        final int from = page * PAGE_SIZE;
+
+        threading.supplyAsynch(() -> {
+            final Children children = node.getChildren();
+            final NodeWrapper[] loaded = new NodeWrapper[wrappers.length];
+
+            for (int i = 0; i < loaded.length; i++) {
+                // null if the children shrank meanwhile, a refresh follows
+                final Node child = children.getNodeAt(from + i);
+                loaded[i] = (null == child) ? null : NodeWrapper.acquire(child);
+            }
+
+            return loaded;
+        }).whenCompleteAsync((loaded, t) -> {
+            final boolean isCurrent = (current == generation) && (wrappers == pages.get(page));
+
+            if (null == loaded) {
+                if (isCurrent) {
+                    // retried when the page is asked for again
+                    pages.remove(page);
+                }
+            } else if (!isCurrent) {
+                dispose(loaded);
+            } else {
+                beginChange();
+
+                for (int i = 0; i < loaded.length; i++) {
+                    wrappers[i] = loaded[i];
+                    nextSet(from + i, null);
+                }
+
+                endChange();
+            }
+        }, NBFxUtilities.FX.getExecutor());
+    }
+
+    private static void dispose(final NodeWrapper[] wrappers) {
+        for (final NodeWrapper nodeWrapper : wrappers) {
+            if (null != nodeWrapper) {
+                nodeWrapper.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2015 NBFx.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.nbfx.nodes.wrapper;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import org.netbeans.junit.NbTestCase;
+import org.openide.nodes.AbstractNode;
+import org.openide.nodes.Children;
+import org.openide.nodes.Node;
+
+/**
+ * Checks the heap retained per {@link NodeWrapper} that was created but
+ * never shown, i.e. the common case for large trees. The wrappers are
+ * created by {@link NodeWrapper#of(Node)}, so their entries in the shared
+ * wrapper cache are counted as well, the nodes are not.
+ */
+public class NodeWrapperFootprintTest extends NbTestCase {
+
+    private static final int COUNT = 1000;
+    // the wrapper and its cache entry; about 1950 bytes before the state was created lazily
+    private static final int BYTES_PER_WRAPPER = 256;
+
+    public NodeWrapperFootprintTest(final String name) {
+        super(name);
+    }
+
+    public void testUnusedWrapperSize() throws Exception {
+        final List<Node> nodes = new ArrayList<>(COUNT);
+        final List<Object> roots = new ArrayList<>(COUNT + 1);
+
+        for (int i = 0; i < COUNT; i++) {
+            final Node node = new AbstractNode(Children.LEAF);
+
+            nodes.add(node);
+            roots.add(NodeWrapper.of(node));
+        }
+
+        roots.add(getWrappers());
+
+        assertSize("Unused wrappers", roots, COUNT * BYTES_PER_WRAPPER, nodes.toArray());
+    }
+
+    public void testWrapperOfNodeIsShared() {
+        final Node node = new AbstractNode(Children.LEAF);
+
+        assertSame(NodeWrapper.of(node), NodeWrapper.of(node));
+    }
+
+    private static Object getWrappers() throws ReflectiveOperationException {
+        final Field wrappers = NodeWrapper.class.getDeclaredField("WRAPPERS");
+
+        wrappers.setAccessible(true);
+
+        return wrappers.get(null);
+    }
+}
@@ -24,7 +24,10 @@
 package org.nbfx.util;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 public interface NBFxThreading {
 
@@ -32,9 +35,66 @@ public interface NBFxThreading {
 
     void ensureThread();
 
+    /**
+     * Schedules the {@code runnable} with {@link Priority#INTERACTIVE}.
+     */
     void runLater(final Runnable runnable);
 
+    /**
+     * Schedules the {@code runnable} in the lane of the given
+     * {@code priority}. Threadings without lanes treat every priority alike.
+     */
+    void runLater(final Priority priority, final Runnable runnable);
+
+    /**
+     * Schedules the {@code runnable} like {@link #runLater(Runnable)} but
+     * keeps only the newest pending runnable per {@code key}. If a runnable
+     * for the same key is still waiting to be run it gets replaced, so only
+     * the latest submission is executed.
+     *
+     * @param key identifies the runnables that supersede each other
+     * @param runnable the runnable to execute
+     */
+    void runLaterCoalesced(final Object key, final Runnable runnable);
+
     <T> Future<T> getAsynch(final Callable<T> callable);
 
+    /**
+     * Runs the {@code callable} on this thread and waits for its result. If
+     * called from this thread the {@code callable} is run directly.
+     */
     <T> T get(final Callable<T> callable);
+
+    /**
+     * Executor running its commands on this thread: directly if already on
+     * it, otherwise via {@link #runLater(Runnable)}. Use it to chain
+     * {@link CompletableFuture} stages across threads, e.g.
+     * {@code SWING.supplyAsynch(..).thenAcceptAsync(.., FX.getExecutor())}.
+     */
+    Executor getExecutor();
+
+    /**
+     * Non-blocking counterpart of {@link #get(Callable)}. If called from this
+     * thread the {@code supplier} is run directly and the returned future is
+     * already completed.
+     */
+    <T> CompletableFuture<T> supplyAsynch(final Supplier<T> supplier);
+
+    CompletableFuture<Void> runAsynch(final Runnable runnable);
+
+    NBFxThreadingStatistics getStatistics();
+
+    enum Priority {
+
+        /**
+         * Work the user is waiting for, e.g. reacting to input. Always run
+         * before any {@link #BULK} work.
+         */
+        INTERACTIVE,
+        /**
+         * Large model updates. Only run when no interactive work is pending
+         * and spread over several pulses if need be.
+         */
+        BULK
+    }
 }
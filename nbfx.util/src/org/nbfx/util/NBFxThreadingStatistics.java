@@ -0,0 +1,244 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2015 NBFx.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.nbfx.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters collected for every runnable that passes through a
+ * {@link NBFxThreading}. Recording only costs a few atomic operations per
+ * runnable, so the statistics are always collected.
+ *
+ * Both histograms share the bucket limits of {@link #getBucketLimits()}: the
+ * value at index {@code i} counts the runnables that took less than
+ * {@code getBucketLimits()[i]} microseconds and at least as long as the
+ * previous limit.
+ */
+public final class NBFxThreadingStatistics {
+
+    private static final long[] BUCKET_LIMITS = {
+        100, 500, 1_000, 5_000, 10_000, 50_000, 100_000, 500_000, 1_000_000, Long.MAX_VALUE
+    };
+    private final LongAdder submittedCount = new LongAdder();
+    private final LongAdder executedCount = new LongAdder();
+    private final LongAdder totalLatency = new LongAdder();
+    private final LongAdder totalExecutionTime = new LongAdder();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(BUCKET_LIMITS.length);
+    private final AtomicLongArray executionHistogram = new AtomicLongArray(BUCKET_LIMITS.length);
+    private volatile long slowestExecutionTime = 0;
+    private volatile String slowestTask = null;
+    private volatile Throwable slowestTaskOrigin = null;
+    private final LongAdder stallCount = new LongAdder();
+    private volatile Throwable lastStall = null;
+
+    NBFxThreadingStatistics() {
+    }
+
+    void submitted() {
+        submittedCount.increment();
+
+        final int depth = queueDepth.incrementAndGet();
+        int max;
+
+        while (depth > (max = maxQueueDepth.get())) {
+            if (maxQueueDepth.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+    }
+
+    void started(final long latencyNanos) {
+        queueDepth.decrementAndGet();
+        totalLatency.add(latencyNanos);
+        latencyHistogram.incrementAndGet(bucketOf(latencyNanos));
+    }
+
+    void finished(final Object task, final Throwable origin, final long executionNanos) {
+        executedCount.increment();
+        totalExecutionTime.add(executionNanos);
+        executionHistogram.incrementAndGet(bucketOf(executionNanos));
+
+        if (executionNanos > slowestExecutionTime) {
+            synchronized (this) {
+                if (executionNanos > slowestExecutionTime) {
+                    slowestExecutionTime = executionNanos;
+                    slowestTask = String.valueOf(task);
+                    slowestTaskOrigin = origin;
+                }
+            }
+        }
+    }
+
+    void stalled(final Throwable stall, final boolean isNewStall) {
+        if (isNewStall) {
+            stallCount.increment();
+        }
+
+        lastStall = stall;
+    }
+
+    private static int bucketOf(final long nanos) {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+
+        for (int i = 0; i < BUCKET_LIMITS.length; i++) {
+            if (micros < BUCKET_LIMITS[i]) {
+                return i;
+            }
+        }
+
+        return BUCKET_LIMITS.length - 1;
+    }
+
+    public static long[] getBucketLimits() {
+        return BUCKET_LIMITS.clone();
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount.sum();
+    }
+
+    public long getExecutedCount() {
+        return executedCount.sum();
+    }
+
+    /**
+     * @return the number of runnables submitted but not yet started
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @return the average time in nanoseconds between submitting a runnable
+     * and it being started
+     */
+    public long getAverageLatency() {
+        final long count = getExecutedCount();
+        return (0 == count) ? 0 : totalLatency.sum() / count;
+    }
+
+    /**
+     * @return the average time in nanoseconds a runnable took to run
+     */
+    public long getAverageExecutionTime() {
+        final long count = getExecutedCount();
+        return (0 == count) ? 0 : totalExecutionTime.sum() / count;
+    }
+
+    public long[] getLatencyHistogram() {
+        return toArray(latencyHistogram);
+    }
+
+    public long[] getExecutionHistogram() {
+        return toArray(executionHistogram);
+    }
+
+    private static long[] toArray(final AtomicLongArray array) {
+        final long[] result = new long[array.length()];
+
+        for (int i = 0; i < result.length; i++) {
+            result[i] = array.get(i);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the time in nanoseconds the slowest runnable took to run
+     */
+    public long getSlowestExecutionTime() {
+        return slowestExecutionTime;
+    }
+
+    public String getSlowestTask() {
+        return slowestTask;
+    }
+
+    /**
+     * @return where the slowest runnable was submitted from, or {@code null}
+     * if submit sites are not traced (see {@code -DNBFxThreadingTrace=true})
+     */
+    public Throwable getSlowestTaskOrigin() {
+        return slowestTaskOrigin;
+    }
+
+    /**
+     * @return the number of runnables the stall watchdog caught running for
+     * longer than its threshold
+     */
+    public long getStallCount() {
+        return stallCount.sum();
+    }
+
+    /**
+     * @return the most recent stall sample: its stack trace is the one of the
+     * stalled thread, its cause (if traced) the submit site of the runnable
+     */
+    public Throwable getLastStall() {
+        return lastStall;
+    }
+
+    /**
+     * Clears the collected values, except for the current queue depth.
+     */
+    public void reset() {
+        submittedCount.reset();
+        executedCount.reset();
+        totalLatency.reset();
+        totalExecutionTime.reset();
+        maxQueueDepth.set(queueDepth.get());
+        stallCount.reset();
+        lastStall = null;
+
+        for (int i = 0; i < BUCKET_LIMITS.length; i++) {
+            latencyHistogram.set(i, 0);
+            executionHistogram.set(i, 0);
+        }
+
+        synchronized (this) {
+            slowestExecutionTime = 0;
+            slowestTask = null;
+            slowestTaskOrigin = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "submitted: " + getSubmittedCount()
+                + "; executed: " + getExecutedCount()
+                + "; queue: " + getQueueDepth() + " (max " + getMaxQueueDepth() + ")"
+                + "; avg latency: " + TimeUnit.NANOSECONDS.toMicros(getAverageLatency()) + " us"
+                + "; avg execution: " + TimeUnit.NANOSECONDS.toMicros(getAverageExecutionTime()) + " us"
+                + "; slowest: " + TimeUnit.NANOSECONDS.toMillis(getSlowestExecutionTime()) + " ms (" + getSlowestTask() + ")";
+    }
+}
@@ -23,30 +23,74 @@
  */
 package org.nbfx.util;
 
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javafx.application.Platform;
 import javafx.embed.swing.JFXPanel;
 import javax.swing.SwingUtilities;
 import org.openide.util.Exceptions;
+import org.openide.util.RequestProcessor;
 
 public final class NBFxUtilities {
 
     private static final Logger LOG = Logger.getLogger(NBFxUtilities.class.getName());
+    private static final boolean TRACE = Boolean.getBoolean("NBFxThreadingTrace");
+    private static final long STALL_THRESHOLD = Long.getLong("NBFxStallThreshold", 2000);
+    private static final boolean VIRTUAL_THREADS = "virtual".equals(System.getProperty("NBFxBackground", "pool"));
     public static final NBFxThreading SWING = new SwingThreading();
     public static final NBFxThreading FX = new FxThreading();
+    public static final NBFxThreading BACKGROUND = createBackgroundThreading("NBFx",
+            Integer.getInteger("NBFxBackgroundThroughput", 2 * Runtime.getRuntime().availableProcessors()));
 
     static {
         LOG.setLevel(Level.CONFIG);
+
+        if (STALL_THRESHOLD > 0) {
+            new StallWatchdog((AbstractThreading) SWING, (AbstractThreading) FX).start();
+        }
     }
 
     private NBFxUtilities() {
     }
 
+    /**
+     * Creates a threading for blocking background work which runs at most
+     * {@code throughput} runnables at the same time. With
+     * {@code -DNBFxBackground=virtual} (and a JVM supporting them) every
+     * runnable gets its own virtual thread, otherwise the runnables share the
+     * pooled threads of a {@link RequestProcessor}.
+     *
+     * @param name name of the threading, e.g. the view using it
+     * @param throughput maximum number of concurrently running runnables
+     * @return a new background threading
+     */
+    public static NBFxThreading createBackgroundThreading(final String name, final int throughput) {
+        final Executor virtualThreads = VIRTUAL_THREADS ? VirtualThreads.EXECUTOR : null;
+
+        return new BackgroundThreading(name, (null == virtualThreads)
+                ? new RequestProcessor(name, Math.max(1, throughput))
+                : new LimitedExecutor(virtualThreads, Math.max(1, throughput)));
+    }
+
     public static abstract class AbstractThreading implements NBFxThreading {
 
+        private final Map<Object, Runnable> coalesced = new ConcurrentHashMap<>();
+        private final NBFxThreadingStatistics statistics = new NBFxThreadingStatistics();
+        private volatile RunnableExecutor running = null;
+        private final Executor executor = command -> {
+            if (isCurrentThread()) {
+                command.run();
+            } else {
+                runLater(command);
+            }
+        };
+
         protected abstract String getThreadingName();
 
         @Override
@@ -71,8 +115,34 @@ public final class NBFxUtilities {
 
         @Override
         public final void runLater(final Runnable runnable) {
+            runLater(Priority.INTERACTIVE, runnable);
+        }
+
+        @Override
+        public final void runLater(final Priority priority, final Runnable runnable) {
             if (null != runnable) {
-                runLaterImpl(new RunnableExecutor(this, runnable));
+                statistics.submitted();
+                runLaterImpl((null == priority) ? Priority.INTERACTIVE : priority, new RunnableExecutor(this, runnable));
+            }
+        }
+
+        @Override
+        public final NBFxThreadingStatistics getStatistics() {
+            return statistics;
+        }
+
+        @Override
+        public final void runLaterCoalesced(final Object key, final Runnable runnable) {
+            if (null == key) {
+                runLater(runnable);
+            } else if ((null != runnable) && (null == coalesced.put(key, runnable))) {
+                runLater(() -> {
+                    final Runnable latest = coalesced.remove(key);
+
+                    if (null != latest) {
+                        latest.run();
+                    }
+                });
             }
         }
 
@@ -81,8 +151,10 @@ public final class NBFxUtilities {
             T result = null;
 
             try {
-                result = getAsynch(callable).get();
-            } catch (final InterruptedException | ExecutionException ex) {
+                result = isCurrentThread()
+                        ? callable.call()
+                        : getAsynch(callable).get();
+            } catch (final Exception ex) {
                 Exceptions.printStackTrace(ex);
                 LOG.log(Level.SEVERE, ex.getMessage(), ex);
             }
@@ -90,33 +162,143 @@ public final class NBFxUtilities {
             return result;
         }
 
+        @Override
+        public final Executor getExecutor() {
+            return executor;
+        }
+
+        @Override
+        public final <T> CompletableFuture<T> supplyAsynch(final Supplier<T> supplier) {
+            return CompletableFuture.supplyAsync(supplier, executor);
+        }
+
+        @Override
+        public final CompletableFuture<Void> runAsynch(final Runnable runnable) {
+            return CompletableFuture.runAsync(runnable, executor);
+        }
+
         protected abstract void runLaterImpl(final Runnable runnable);
+
+        protected void runLaterImpl(final Priority priority, final Runnable runnable) {
+            runLaterImpl(runnable);
+        }
+
+        /**
+         * @return {@code false} if runnables may run on several threads at the
+         * same time, which excludes this threading from stall monitoring
+         */
+        protected boolean isSingleThreaded() {
+            return true;
+        }
     }
 
     private static class RunnableExecutor implements Runnable {
 
         private final AbstractThreading threading;
         private final Runnable runnable;
-        private final Throwable throwable = null;
+        private final Throwable throwable;
+        private final long submitTime = System.nanoTime();
+        private volatile Thread thread = null;
+        private volatile long startTime = 0;
+        private volatile boolean stallReported = false;
 
         public RunnableExecutor(final AbstractThreading threading, final Runnable runnable) {
             this.threading = threading;
             this.runnable = runnable;
+            this.throwable = TRACE
+                    ? new Throwable("Submitted to " + threading.getThreadingName())
+                    : null;
+        }
+
+        @Override
+        public void run() {
+            final boolean isMonitored = threading.isSingleThreaded();
+            final RunnableExecutor outer = threading.running;
+
+            thread = Thread.currentThread();
+            startTime = System.nanoTime();
+            threading.statistics.started(startTime - submitTime);
+
+            if (isMonitored) {
+                threading.running = this;
+            }
+
+            try {
+                runnable.run();
+            } finally {
+                if (isMonitored) {
+                    threading.running = outer;
+                }
+
+                final long diffNanos = System.nanoTime() - startTime;
+                final long diff = TimeUnit.NANOSECONDS.toMillis(diffNanos);
+
+                threading.statistics.finished(runnable, throwable, diffNanos);
+
+                if (diff > 100) {
+                    LOG.log(Level.CONFIG,
+                            threading.getThreadingName() + "-Thread took " + diff + " ms to run " + runnable,
+                            (diff < 1000) ? null : throwable);
+                }
+            }
+        }
+    }
+
+    /**
+     * Periodically checks whether the EDT or the FX Application Thread is
+     * stuck in a single runnable for longer than {@code -DNBFxStallThreshold}
+     * ms (default 2000, {@code 0} disables the watchdog). A stalled thread
+     * gets its stack sampled and reported together with the runnable and, if
+     * {@code -DNBFxThreadingTrace=true}, the stack it was submitted from.
+     */
+    private static final class StallWatchdog implements Runnable {
+
+        private final RequestProcessor.Task task = new RequestProcessor(StallWatchdog.class.getSimpleName(), 1).create(this);
+        private final AbstractThreading[] threadings;
+
+        private StallWatchdog(final AbstractThreading... threadings) {
+            this.threadings = threadings;
+        }
+
+        void start() {
+            task.schedule((int) Math.max(1, STALL_THRESHOLD / 2));
         }
 
         @Override
         public void run() {
-            final long startTime = System.currentTimeMillis();
+            try {
+                for (final AbstractThreading threading : threadings) {
+                    check(threading);
+                }
+            } finally {
+                start();
+            }
+        }
+
+        private static void check(final AbstractThreading threading) {
+            final RunnableExecutor executor = threading.running;
+
+            if (null == executor) {
+                return;
+            }
+
+            final Thread thread = executor.thread;
+            final long stalled = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - executor.startTime);
+
+            if ((null == thread) || (stalled < STALL_THRESHOLD) || (executor != threading.running)) {
+                return;
+            }
 
-            runnable.run();
+            final Throwable stall = new Throwable(threading.getThreadingName() + "-Thread stalled for " + stalled + " ms running " + executor.runnable, executor.throwable);
 
-            final long endTime = System.currentTimeMillis();
-            final long diff = endTime - startTime;
+            stall.setStackTrace(thread.getStackTrace());
+            threading.statistics.stalled(stall, !executor.stallReported);
 
-            if (diff > 100) {
-                LOG.log(Level.CONFIG,
-                        threading.getThreadingName() + "-Thread took " + diff + " ms to run " + runnable,
-                        (diff < 1000) ? null : throwable);
+            if (!executor.stallReported) {
+                executor.stallReported = true;
+                LOG.log(Level.WARNING, stall.getMessage(), stall);
+            } else {
+                LOG.log(Level.FINE, stall.getMessage(), stall);
             }
         }
     }
@@ -144,7 +326,13 @@ public final class NBFxUtilities {
     private static final class FxThreading extends AbstractThreading {
 
         private static final String NAME = "FxApplicationThread";
+        private static final boolean BATCHING = Boolean.parseBoolean(System.getProperty("NBFxFxBatching", "true"));
+        private static final long DRAIN_BUDGET = TimeUnit.MILLISECONDS.toNanos(Long.getLong("NBFxFxDrainBudget", 8));
+        private static final long BULK_BUDGET = TimeUnit.MILLISECONDS.toNanos(Long.getLong("NBFxFxBulkBudget", 4));
         private final AtomicBoolean isInitiated = new AtomicBoolean(false);
+        private final AtomicBoolean isDrainScheduled = new AtomicBoolean(false);
+        private final Queue<Runnable> interactiveQueue = new ConcurrentLinkedQueue<>();
+        private final Queue<Runnable> bulkQueue = new ConcurrentLinkedQueue<>();
 
         public FxThreading() {
             runLater(() -> {
@@ -163,6 +351,11 @@ public final class NBFxUtilities {
 
         @Override
         protected void runLaterImpl(final Runnable runnable) {
+            runLaterImpl(Priority.INTERACTIVE, runnable);
+        }
+
+        @Override
+        protected void runLaterImpl(final Priority priority, final Runnable runnable) {
             synchronized (this) {
                 if (!isInitiated.get()) {
                     LOG.log(Level.FINE, "Initiated Platform Thread with {0}", new JFXPanel());
@@ -171,7 +364,178 @@ public final class NBFxUtilities {
                 }
             }
 
-            Platform.runLater(runnable);
+            if (BATCHING) {
+                (Priority.BULK == priority ? bulkQueue : interactiveQueue).offer(runnable);
+                scheduleDrain();
+            } else {
+                Platform.runLater(runnable);
+            }
+        }
+
+        private void scheduleDrain() {
+            if ((!interactiveQueue.isEmpty() || !bulkQueue.isEmpty()) && isDrainScheduled.compareAndSet(false, true)) {
+                Platform.runLater(this::drain);
+            }
+        }
+
+        /**
+         * Runs the queued runnables until either the queues are empty or the
+         * drain budget is used up. Interactive runnables are always taken
+         * first, bulk runnables only as long as the smaller bulk budget lasts.
+         * Whatever is left over is picked up by the next drain, so a burst of
+         * submissions gets spread over several pulses instead of freezing a
+         * single frame.
+         * <p>
+         * The next drain is scheduled before a runnable is run, so that it is
+         * run by a nested event loop the runnable may enter (e.g. a dialog
+         * shown and waited for) rather than waiting until the loop exits.
+         */
+        private void drain() {
+            final long start = System.nanoTime();
+
+            // from now on, submissions need a drain of their own
+            isDrainScheduled.set(false);
+
+            try {
+                while (true) {
+                    final long elapsed = System.nanoTime() - start;
+                    Runnable runnable = interactiveQueue.poll();
+
+                    if ((null == runnable) && (elapsed < BULK_BUDGET)) {
+                        runnable = bulkQueue.poll();
+                    }
+
+                    if (null == runnable) {
+                        break;
+                    }
+
+                    // at most one pending drain; if this one finishes first, it finds the leftovers
+                    scheduleDrain();
+
+                    try {
+                        runnable.run();
+                    } catch (final RuntimeException e) {
+                        LOG.log(Level.SEVERE, e.getMessage(), e);
+                    }
+
+                    if (System.nanoTime() - start > DRAIN_BUDGET) {
+                        break;
+                    }
+                }
+            } finally {
+                scheduleDrain();
+            }
+        }
+    }
+
+    private static final class BackgroundThreading extends AbstractThreading {
+
+        private static final ThreadLocal<BackgroundThreading> CURRENT = new ThreadLocal<>();
+        private final String name;
+        private final Executor executor;
+
+        BackgroundThreading(final String name, final Executor executor) {
+            this.name = name;
+            this.executor = executor;
+        }
+
+        @Override
+        protected String getThreadingName() {
+            return name;
+        }
+
+        @Override
+        public boolean isCurrentThread() {
+            return this == CURRENT.get();
+        }
+
+        @Override
+        protected boolean isSingleThreaded() {
+            return false;
+        }
+
+        @Override
+        protected void runLaterImpl(final Runnable runnable) {
+            executor.execute(() -> {
+                final BackgroundThreading outer = CURRENT.get();
+
+                CURRENT.set(this);
+
+                try {
+                    runnable.run();
+                } finally {
+                    if (null == outer) {
+                        CURRENT.remove();
+                    } else {
+                        CURRENT.set(outer);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs at most {@code limit} commands at the same time on the
+     * {@code delegate}, queueing the rest.
+     */
+    private static final class LimitedExecutor implements Executor {
+
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger active = new AtomicInteger();
+        private final Executor delegate;
+        private final int limit;
+
+        LimitedExecutor(final Executor delegate, final int limit) {
+            this.delegate = delegate;
+            this.limit = limit;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            queue.offer(command);
+            schedule();
+        }
+
+        private void schedule() {
+            while (!queue.isEmpty()) {
+                final int current = active.get();
+
+                if (current >= limit) {
+                    return; // a finishing task schedules the rest
+                } else if (active.compareAndSet(current, current + 1)) {
+                    // one slot per command actually taken from the queue
+                    final Runnable command = queue.poll();
+
+                    if (null == command) {
+                        active.decrementAndGet();
+                    } else {
+                        delegate.execute(() -> run(command));
+                    }
+                }
+            }
+        }
+
+        private void run(final Runnable command) {
+            try {
+                command.run();
+            } finally {
+                active.decrementAndGet();
+                schedule();
+            }
+        }
+    }
+
+    private static final class VirtualThreads {
+
+        private static final Executor EXECUTOR = create();
+
+        private static Executor create() {
+            try {
+                return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (final ReflectiveOperationException | RuntimeException ex) {
+                LOG.log(Level.CONFIG, "Virtual threads are not available, using pooled threads instead", ex);
+                return null;
+            }
         }
     }
 }
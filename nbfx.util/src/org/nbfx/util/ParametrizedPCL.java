@@ -26,24 +26,76 @@ package org.nbfx.util;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Dispatches property changes to listeners registered per property name.
+ *
+ * The dispatch table is immutable and replaced as a whole on registration,
+ * so delivering an event needs neither locking nor allocations unless a
+ * listener has to be rescheduled on another thread.
+ *
+ * In batching mode all events arriving before a thread gets around to deliver
+ * them are handed over in a single runnable per thread, keeping only the
+ * latest event per property name. So every listener with a thread coalesces
+ * in this mode, whether registered as coalescing or not.
+ *
+ * Listeners known up front are best registered through a {@link Builder},
+ * which creates the dispatch table once instead of once per listener.
+ */
 public final class ParametrizedPCL implements PropertyChangeListener {
 
-    private Map<String, Collection<PropertyChangeListener>> map = null;
-//    private Map<String, Collection<PropertyChangeListener>> map = null;
+    private static final ThreadedPCL[] NO_LISTENERS = new ThreadedPCL[0];
+    private volatile Map<String, ThreadedPCL[]> map = Collections.emptyMap();
+    private final boolean batching;
+    private volatile Map<NBFxThreading, Batch> batches = null;
+
+    public ParametrizedPCL() {
+        this(false);
+    }
+
+    public ParametrizedPCL(final boolean batching) {
+        this.batching = batching;
+    }
 
     @Override
     public void propertyChange(PropertyChangeEvent pce) {
-        if (null == map) {
-            return;
+        final ThreadedPCL[] listeners = map.getOrDefault(pce.getPropertyName(), NO_LISTENERS);
+
+        for (final ThreadedPCL listener : listeners) {
+            if (!batching || (null == listener.threading)) {
+                listener.propertyChange(pce);
+            } else {
+                getBatch(listener.threading).offer(pce);
+            }
+        }
+    }
+
+    private Batch getBatch(final NBFxThreading threading) {
+        Map<NBFxThreading, Batch> current = batches;
+
+        if (null == current) {
+            synchronized (this) {
+                current = batches;
+
+                if (null == current) {
+                    current = new ConcurrentHashMap<>(2);
+                    batches = current;
+                }
+            }
         }
 
-        map.getOrDefault(pce.getPropertyName(), Collections.emptyList())
-                .forEach(pcl -> pcl.propertyChange(pce));
+        final Batch batch = current.get(threading);
+
+        return (null == batch)
+                ? current.computeIfAbsent(threading, Batch::new)
+                : batch;
     }
 
     public void addPropertyChangeListener(final String propertyName, final PropertyChangeListener propertyChangeListener) {
@@ -51,32 +103,146 @@ public final class ParametrizedPCL implements PropertyChangeListener {
     }
 
     public void addPropertyChangeListener(final String propertyName, final NBFxThreading nbft, final PropertyChangeListener propertyChangeListener) {
+        addThreadedPCL(propertyName, nbft, propertyChangeListener, false);
+    }
+
+    /**
+     * Registers a listener that is only interested in the latest event. Events
+     * that are superseded before the {@code nbft} thread got around to deliver
+     * them are dropped. In batching mode this is what any listener with a
+     * thread gets, so a plain registration is enough there.
+     */
+    public void addCoalescingPropertyChangeListener(final String propertyName, final NBFxThreading nbft, final PropertyChangeListener propertyChangeListener) {
+        addThreadedPCL(propertyName, nbft, propertyChangeListener, true);
+    }
+
+    private synchronized void addThreadedPCL(final String propertyName, final NBFxThreading nbft, final PropertyChangeListener propertyChangeListener, final boolean coalescing) {
         if (null == propertyChangeListener) {
             return;
-        } else if (null == map) {
-            map = new HashMap<>();
         }
 
-        map.computeIfAbsent(propertyName, s -> new ArrayList<>()).add(new ThreadedPCL(nbft, propertyChangeListener));
+        final String key = (null == propertyName) ? null : propertyName.intern();
+        final ThreadedPCL[] listeners = map.getOrDefault(key, NO_LISTENERS);
+        final ThreadedPCL[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+        final Map<String, ThreadedPCL[]> newMap = new HashMap<>(map);
+
+        newListeners[listeners.length] = new ThreadedPCL(nbft, propertyChangeListener, coalescing);
+        newMap.put(key, newListeners);
+        map = Collections.unmodifiableMap(newMap);
+    }
+
+    /**
+     * Collects listeners and creates a {@link ParametrizedPCL} dispatching to
+     * them, building its dispatch table in one step.
+     */
+    public static final class Builder {
+
+        private final Map<String, List<ThreadedPCL>> listeners = new HashMap<>();
+
+        public Builder addPropertyChangeListener(final String propertyName, final PropertyChangeListener propertyChangeListener) {
+            return addPropertyChangeListener(propertyName, null, propertyChangeListener);
+        }
+
+        public Builder addPropertyChangeListener(final String propertyName, final NBFxThreading nbft, final PropertyChangeListener propertyChangeListener) {
+            return add(propertyName, nbft, propertyChangeListener, false);
+        }
+
+        /**
+         * @see ParametrizedPCL#addCoalescingPropertyChangeListener(String,
+         * NBFxThreading, PropertyChangeListener)
+         */
+        public Builder addCoalescingPropertyChangeListener(final String propertyName, final NBFxThreading nbft, final PropertyChangeListener propertyChangeListener) {
+            return add(propertyName, nbft, propertyChangeListener, true);
+        }
+
+        private Builder add(final String propertyName, final NBFxThreading nbft, final PropertyChangeListener propertyChangeListener, final boolean coalescing) {
+            if (null != propertyChangeListener) {
+                final String key = (null == propertyName) ? null : propertyName.intern();
+
+                listeners.computeIfAbsent(key, k -> new ArrayList<>(1)).add(new ThreadedPCL(nbft, propertyChangeListener, coalescing));
+            }
+
+            return this;
+        }
+
+        public ParametrizedPCL build(final boolean batching) {
+            final ParametrizedPCL ppcl = new ParametrizedPCL(batching);
+            final Map<String, ThreadedPCL[]> map = new HashMap<>(listeners.size() * 4 / 3 + 1);
+
+            listeners.forEach((key, list) -> map.put(key, list.toArray(NO_LISTENERS)));
+            ppcl.map = Collections.unmodifiableMap(map);
+
+            return ppcl;
+        }
     }
 
-    private final class ThreadedPCL implements PropertyChangeListener {
+    private static final class ThreadedPCL implements PropertyChangeListener {
 
         private final NBFxThreading threading;
         private final PropertyChangeListener pcl;
+        private final boolean coalescing;
 
-        public ThreadedPCL(final NBFxThreading threading, final PropertyChangeListener pcl) {
+        public ThreadedPCL(final NBFxThreading threading, final PropertyChangeListener pcl, final boolean coalescing) {
             this.threading = threading;
             this.pcl = pcl;
+            this.coalescing = coalescing;
         }
 
         @Override
         public void propertyChange(final PropertyChangeEvent evt) {
             if (null == threading) {
                 pcl.propertyChange(evt);
+            } else if (coalescing) {
+                threading.runLaterCoalesced(this, () -> pcl.propertyChange(evt));
             } else {
                 threading.runLater(() -> pcl.propertyChange(evt));
             }
         }
     }
+
+    private final class Batch implements Runnable {
+
+        private final NBFxThreading threading;
+        private Map<String, PropertyChangeEvent> events = null;
+
+        private Batch(final NBFxThreading threading) {
+            this.threading = threading;
+        }
+
+        private void offer(final PropertyChangeEvent pce) {
+            final boolean schedule;
+
+            synchronized (this) {
+                schedule = (null == events);
+
+                if (schedule) {
+                    events = new LinkedHashMap<>();
+                }
+
+                events.put(pce.getPropertyName(), pce);
+            }
+
+            if (schedule) {
+                threading.runLater(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            final Map<String, PropertyChangeEvent> pending;
+
+            synchronized (this) {
+                pending = events;
+                events = null;
+            }
+
+            for (final PropertyChangeEvent pce : pending.values()) {
+                for (final ThreadedPCL listener : map.getOrDefault(pce.getPropertyName(), NO_LISTENERS)) {
+                    if (threading == listener.threading) {
+                        listener.pcl.propertyChange(pce);
+                    }
+                }
+            }
+        }
+    }
 }